@@ -9,259 +9,913 @@
  * <li>INS (Insertions)  where a sequence is inserted in the new genome</li>
  * <li>DEL (Deletions)   where a sequence is missing in the new genome</li>
  * </ul> 
+ * <p>
+ * Usage:
+ * <pre>
+ * java Alignment [--index FILE] [--sparse W] [--threads N] [--max-indel N]
+ *                [--cache N] [--cache-policy lru|fifo] [--cache-stats] REFERENCE &lt; READS
+ * java Alignment --build-index FILE [--sparse W] REFERENCE
+ * java Alignment --batch MANIFEST [--samples N] [options] REFERENCE
+ * java Alignment --serve PORT [--max-requests N] [--max-reads N] [--max-line N] [--timeout S]
+ *                [options] REFERENCE
+ * </pre>
+ * Building the reference index dominates the run time for small samples,
+ * so it can be saved to an index file with --build-index and reused with
+ * --index. An index file that is missing, damaged, or was built from a
+ * different REFERENCE, is rebuilt before the reads are aligned.
+ * <p>
+ * By default the index is dense, holding every k-mer of the reference.
+ * With --sparse W it holds only the minimizers of each W consecutive
+ * k-mers, several times fewer entries, and reads are seeded from their
+ * own minimizers instead of from all of their k-mers.
+ * <p>
+ * Reads are mapped in batches by a pool of --threads workers (one per
+ * core by default). Batches are merged back in input order, so the
+ * output does not depend on the number of threads.
+ * <p>
+ * Insertions and deletions of up to --max-indel bases (4 by default, at
+ * most VariantKey.MAX_ALLELE) are reported.
+ * <p>
+ * Reads that do not match exactly are checked once per distinct read:
+ * the variants found are kept in a cache of --cache reads (262,144 by
+ * default, 0 to turn it off), evicting the least recently used read or
+ * with --cache-policy fifo the oldest. --cache-stats prints its hit rate
+ * to stderr.
+ * <p>
+ * For "read,pair" input, the spacing of the two mates is learned from
+ * the pairs of the first batch that both match exactly, on either
+ * strand. Whether the mates come from the same strand or from opposite
+ * ones (forward-reverse libraries) is learned with it, from whichever
+ * the most pairs show. When only one mate of a later pair matches, the
+ * other is checked just in that window around its partner, on the
+ * strand the library puts it, rather than seeded against the whole
+ * genome. With --sparse, mates are placed through their first
+ * minimizer rather than a read-length window.
+ * <p>
+ * With --batch, the reference is indexed once and each sample listed in
+ * MANIFEST is aligned against it, instead of reading stdin. Each line of
+ * MANIFEST names a sample's reads file and the report file to write for
+ * it, separated by whitespace; blank lines and lines starting with '#'
+ * are skipped. Up to --samples samples (2 by default) are read at once,
+ * sharing the index and the worker threads.
+ * <p>
+ * With --serve, the reference is indexed once and the program keeps
+ * running, accepting connections on PORT of the loopback interface. A
+ * client sends a sample exactly as it would on stdin, closes its side
+ * of the connection, and reads back the report. Each connection runs on
+ * a virtual thread where the JVM has them (Java 21 on). At most
+ * --max-requests connections (64 by default) are served at once, later
+ * ones wait to be accepted. A request may hold at most --max-reads lines
+ * (1,000,000 by default) of at most --max-line bytes each (1 MB by
+ * default), and may stall for at most --timeout seconds (60 by default);
+ * a request breaking any of these limits is answered with a line
+ * starting "ERROR".
  * 
  * @author Karl Danielsen
  * @version 0.3
  */
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 public class Alignment{
     
     private final int K = 50;
     private final int MERLEN = 17;
     private final int MAPSIZE = 1000000;
+    private final int BATCH = 4096;
+    private final int MAXSNPS = 3;
+    //Pairs needed to learn the insert size, and the share of them the
+    //learned window leaves out at either end
+    private final int MINPAIRS = 32;
+    //Whether the mates of a pair lie on the same strand or on opposite ones
+    private final int SAME_STRAND = 0;
+    private final int OPPOSITE_STRANDS = 1;
+    private final double INSERT_TAIL = 0.005;
     
-    private HashMap<String,Integer> ref;
-    private HashMap<String,Integer> kmers;
+    //ref is keyed by a hash of each read-length window of the genome and
+    //holds the position in genome where it first appears. seeds holds
+    //every position of each MERLEN-length k-mer.
+    private LongIntMap ref;
+    private SeedIndex seeds;
     private HashMap<String,Integer> hasMatch;
 
-    private ArrayList<String> unmatcheds;
+    private PackedSequence genome;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private ExecutorService workers;
+
+    //The number of samples aligned at once in batch mode
+    private int samples = 2;
+
+    //Limits on the connections served at once, and on each of them
+    private int maxRequests = 64;
+    private long maxReads = 1000000;
+    private int maxLine = 1 << 20;
+    private int timeout = 60;
+
+    //The minimizer window of a sparse index, 0 for a dense one
+    private int window = 0;
+    private final ThreadLocal<Minimizers> minimizers =
+	ThreadLocal.withInitial(() -> new Minimizers(window));
+    private final ThreadLocal<SeedChainer> chainers =
+	ThreadLocal.withInitial(() -> new SeedChainer(seeds,MERLEN));
+    private final ThreadLocal<KmerRoller> rollers =
+	ThreadLocal.withInitial(() -> new KmerRoller(MERLEN));
+    //Reverse complements of reads placed on the other strand, and of
+    //mates rescued on it
+    private final ThreadLocal<StringBuilder> complements =
+	ThreadLocal.withInitial(() -> new StringBuilder(K));
+    private final ThreadLocal<StringBuilder> mateComplements =
+	ThreadLocal.withInitial(() -> new StringBuilder(K));
+    //A rescued mate's bases, packed a word at a time
+    private final ThreadLocal<long[]> mateChunks =
+	ThreadLocal.withInitial(() -> new long[(K+Bases.MAX_K-1)/Bases.MAX_K]);
+
+    //Variants already called from each distinct unmatched read
+    private int cacheSize = 1 << 18;
+    private boolean cacheLru = true;
+    private boolean cacheStats = false;
+    private ReadCache cache;
+    //Each worker's reused cache key, and the variants called for it
+    private final ThreadLocal<VariantTally> scratch =
+	ThreadLocal.withInitial(() -> new VariantTally(ReadCache.MAX_CALLS));
+    private final ThreadLocal<long[]> keys = ThreadLocal.withInitial(() -> new long[2]);
 
-    private String genome;
-    private String genomeName;
+    //The longest insertion or deletion checkIndel looks for
+    private int maxIndel = 4;
+    private final ThreadLocal<BandedAligner> aligners =
+	ThreadLocal.withInitial(() -> new BandedAligner(K,maxIndel));
 
     /**
-     * Called when the program is run. Stitches together other modules.
+     * Called when the program is run.
      *
      * @param args The passed in command-line arguments.
+     * @see        #run
      */
-    public void main(String[] args){
-	ref   = new HashMap<String,Integer>(MAPSIZE/3);
-	kmers = new HashMap<String,Integer>(MAPSIZE);
+    public static void main(String[] args){
+	new Alignment().run(args);
+    }
+
+    /**
+     * Stitches together other modules.
+     *
+     * @param args The passed in command-line arguments.
+     */
+    public void run(String[] args){
+	File indexFile = null;
+	File manifest = null;
+	int port = -1;
+	boolean buildIndex = false;
+	int arg = 0;
+	for(; arg < args.length && args[arg].startsWith("--"); arg++){
+	    if(args[arg].equals("--index"))
+		indexFile = new File(args[++arg]);
+	    else if(args[arg].equals("--build-index")){
+		indexFile = new File(args[++arg]);
+		buildIndex = true;
+	    }
+	    else if(args[arg].equals("--batch"))
+		manifest = new File(args[++arg]);
+	    else if(args[arg].equals("--samples"))
+		samples = Math.max(1,Integer.parseInt(args[++arg]));
+	    else if(args[arg].equals("--serve"))
+		port = Integer.parseInt(args[++arg]);
+	    else if(args[arg].equals("--max-requests"))
+		maxRequests = Math.max(1,Integer.parseInt(args[++arg]));
+	    else if(args[arg].equals("--max-reads"))
+		maxReads = Long.parseLong(args[++arg]);
+	    else if(args[arg].equals("--max-line"))
+		maxLine = Math.max(1,Integer.parseInt(args[++arg]));
+	    else if(args[arg].equals("--timeout"))
+		timeout = Integer.parseInt(args[++arg]);
+	    else if(args[arg].equals("--cache"))
+		cacheSize = Integer.parseInt(args[++arg]);
+	    else if(args[arg].equals("--cache-policy"))
+		cacheLru = !args[++arg].equals("fifo");
+	    else if(args[arg].equals("--cache-stats"))
+		cacheStats = true;
+	    else if(args[arg].equals("--sparse"))
+		window = Math.min(Integer.parseInt(args[++arg]),K-MERLEN+1);
+	    else if(args[arg].equals("--threads"))
+		threads = Integer.parseInt(args[++arg]);
+	    else if(args[arg].equals("--max-indel"))
+		maxIndel = Math.min(Integer.parseInt(args[++arg]),VariantKey.MAX_ALLELE);
+	    else{
+		System.out.println("Unknown option " + args[arg]);
+		return;
+	    }
+	}
 	hasMatch = new HashMap<String,Integer>(MAPSIZE);
-	genome = "";
+	if(cacheSize > 0)
+	    cache = new ReadCache(cacheSize,cacheLru);
 
-	//Read in the reference genome
-	Scanner scanner = null;
+	//Read in the reference genome, and prep it for easy
+	//comparison to new genome
 	try{
-	    scanner = new Scanner(
-			      new File(args[0]));
+	    if(buildIndex){
+		ReferenceIndex.build(new File(args[arg]),K,MERLEN,window).write(indexFile,new File(args[arg]));
+		return;
+	    }
+	    populateRefs(new File(args[arg]),indexFile);
 	}
-	catch(FileNotFoundException e){
+	catch(IOException e){
 	    System.out.println("File not found.");
+	    return;
 	}
 
-	//Prep reference genome for easy comparison to new genome
-	populateRefs(scanner);
-
-	//Attempt to match reads to locations in the reference genome
-	unmatcheds = indexReads();
+	//Match reads to locations in the reference genome, and check
+	//the ones that do not match for each type of error
+	workers = Executors.newFixedThreadPool(threads);
+	try{
+	    if(port >= 0){
+		serve(port);
+		return;
+	    }
+	    if(manifest != null){
+		alignSamples(manifest);
+		return;
+	    }
+	    //Variants found in the new genome, counted as reads stream through
+	    VariantTally variants = new VariantTally();
+	    String genomeName;
+	    try(ReadParser parser = ReadParser.of(System.in)){
+		genomeName = indexReads(parser,variants,0);
+	    }
+	    report(System.out,genomeName,variants);
+	}
+	catch(IOException e){
+	    System.out.println("Reads could not be read.");
+	}
+	finally{
+	    workers.shutdown();
+	    if(cacheStats && cache != null)
+		System.err.println(cache.stats());
+	}
+    }
 
-	//Now, check unmatched reads for each type of error
-	ArrayList<String> snpOutput = new ArrayList<String>();
-	ArrayList<String> delOutput = new ArrayList<String>();
-	ArrayList<String> insOutput = new ArrayList<String>();
-	ArrayList<String> testOutput = new ArrayList<String>();
-	
-	String[] submers;
-	boolean foundSNP = false;
-	for(String unmatched : unmatcheds){
-	    //Divide the unmatched read into 3 mers of length 17.
-	    try{
-		submers = new String[]{unmatched.substring(0,MERLEN),
-				       unmatched.substring(MERLEN,MERLEN*2),
-				       unmatched.substring(MERLEN*2-1,K)};
+    /**
+     * Aligns every sample listed in a manifest against the loaded
+     * reference, several at once, writing a report file for each. A
+     * sample that fails is reported and skipped.
+     *
+     * @param manifest     the file listing "READS REPORT" pairs, one per line
+     * @throws IOException if the manifest cannot be read
+     */
+    private void alignSamples(File manifest) throws IOException{
+	ArrayList<String[]> jobs = new ArrayList<String[]>();
+	for(String line : Files.readAllLines(manifest.toPath())){
+	    line = line.trim();
+	    if(line.isEmpty() || line.startsWith("#"))
+		continue;
+	    String[] job = line.split("\\s+");
+	    if(job.length != 2){
+		System.out.println("Bad manifest line: " + line);
+		return;
 	    }
-	    catch(StringIndexOutOfBoundsException e){
-	        continue;
+	    jobs.add(job);
+	}
+
+	//Each runner reads one sample, handing its batches to the workers
+	ExecutorService runners = Executors.newFixedThreadPool(Math.max(1,Math.min(samples,jobs.size())));
+	try{
+	    ArrayList<Future<?>> done = new ArrayList<Future<?>>();
+	    for(String[] job : jobs)
+		done.add(runners.submit(() -> alignSample(new File(job[0]),new File(job[1]))));
+	    for(int i = 0; i < jobs.size(); i++){
+		try{
+		    done.get(i).get();
+		}
+		catch(InterruptedException | ExecutionException e){
+		    System.out.println("Sample " + jobs.get(i)[0] + " failed: " + e.getCause());
+		}
 	    }
+	}
+	finally{
+	    runners.shutdown();
+	}
+    }
+
+    /**
+     * Aligns one sample's reads and writes its report.
+     *
+     * @param reads        the sample's reads, in the format read from stdin
+     * @param report       the file to write the sample's variants to
+     * @return             null
+     * @throws IOException if either file cannot be accessed
+     */
+    private Void alignSample(File reads, File report) throws IOException{
+	VariantTally variants = new VariantTally();
+	String genomeName;
+	try(ReadParser parser = ReadParser.of(reads)){
+	    genomeName = indexReads(parser,variants,0);
+	}
+	try(PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(report)))){
+	    report(out,genomeName,variants);
+	    if(out.checkError())
+		throw new IOException("Could not write " + report);
+	}
+	return null;
+    }
 
-	    //index vars track where in the reference genome the mers match
-	    int indexOfMer1 = -1;
-	    int indexOfMer2 = -1;
-	    int indexOfMer3 = -1;
-	    int mersFound = 0;
-
-	    for(int i = 0; i < submers.length; i++){
-		//If two mers of a read match but one doesn't,
-		//check it for problems.
-		if(kmers.containsKey(submers[i])){
-		    mersFound++;
-		    if(i == 0)
-			indexOfMer1 = kmers.get(submers[i]);
-		    else if(i == 1)
-			indexOfMer2 = kmers.get(submers[i])-MERLEN;
-		    else
-		    indexOfMer3 = kmers.get(submers[i])-(MERLEN*2-1);
+    /**
+     * Serves alignment requests until the process is stopped. Connections
+     * are only accepted while fewer than maxRequests are being served, so
+     * a burst of clients queues in the listen backlog rather than piling
+     * work onto the shared workers.
+     *
+     * @param port         the loopback port to listen on, 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    private void serve(int port) throws IOException{
+	Semaphore permits = new Semaphore(maxRequests);
+	ExecutorService requests = requestExecutor();
+	try(ServerSocket server = new ServerSocket(port,maxRequests,InetAddress.getLoopbackAddress())){
+	    System.out.println("Listening on " + server.getLocalSocketAddress());
+	    while(true){
+		permits.acquireUninterruptibly();
+		Socket socket;
+		try{
+		    socket = server.accept();
+		}
+		catch(IOException e){
+		    permits.release();
+		    throw e;
 		}
+		requests.execute(() -> {
+			try{
+			    serveRequest(socket);
+			}
+			finally{
+			    permits.release();
+			}
+		    });
 	    }
-	    
-	    //If two of the kmers match, check for SNPs
-	    if(mersFound > 1)
-		foundSNP = checkSNP(snpOutput,unmatched,indexOfMer1,indexOfMer2,indexOfMer3);
+	}
+	finally{
+	    requests.shutdown();
+	}
+    }
 
-	    //If no SNP is found, check for INS/DEL
-	    if(!foundSNP)
-		checkIndel(insOutput,delOutput,unmatched,indexOfMer1);
+    /**
+     * @return an executor starting a virtual thread per request where the
+     *         JVM has them, and otherwise a pool of platform threads
+     */
+    private static ExecutorService requestExecutor(){
+	try{
+	    return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
 	}
+	catch(ReflectiveOperationException e){
+	    return Executors.newCachedThreadPool();
+	}
+    }
+
+    /**
+     * Aligns the sample sent over one connection and sends back its
+     * report, or a line starting "ERROR" if it breaks a limit or cannot
+     * be read.
+     *
+     * @param socket the client's connection, closed when done
+     */
+    private void serveRequest(Socket socket){
+	try(Socket client = socket){
+	    client.setSoTimeout(timeout*1000);
+	    PrintStream out = new PrintStream(new BufferedOutputStream(client.getOutputStream()));
+	    VariantTally variants = new VariantTally();
+	    try{
+		//Requests are expected to be small and many, so start small.
+		//A line with no end in sight must not grow the buffer forever
+		ReadParser parser = ReadParser.of(client.getInputStream(),1 << 16,maxLine);
+		report(out,indexReads(parser,variants,maxReads),variants);
+		if(cacheStats && cache != null)
+		    System.err.println(cache.stats());
+	    }
+	    catch(IOException e){
+		out.println("ERROR " + e.getMessage());
+	    }
+	    out.flush();
+	}
+	catch(IOException e){
+	    //The client went away, there is no one left to tell
+	}
+    }
 
+    /**
+     * Prints the variants found in a sample.
+     *
+     * @param out        where to print
+     * @param genomeName the sample's name line
+     * @param variants   the variants found in the sample
+     */
+    private void report(PrintStream out, String genomeName, VariantTally variants){
 	/*
 	 *  Prints according to FASTA formatting instructions here
 	 *     --> https://cm122.herokuapp.com/ans_file_doc
 	 */
-	System.out.println(genomeName);
+	out.println(genomeName);
 	
 	//Only print SNPs with 3+ appearances
-	System.out.println(">SNP");
-	auditErrors(snpOutput,2);
+	out.println(">SNP");
+	auditErrors(out,variants,VariantKey.SNP,2);
 	
 	//Only print insertions with 2+ appearances
-	System.out.println(">INS");
-	auditErrors(insOutput,1);
+	out.println(">INS");
+	auditErrors(out,variants,VariantKey.INS,1);
 
 	//Only print deletions with 2+ appearances
-	System.out.println(">DEL");
-	auditErrors(delOutput,1);
+	out.println(">DEL");
+	auditErrors(out,variants,VariantKey.DEL,1);
 	
     }
 
     /** 
-     * Populates class-level variables with the full sequence, read-length,
-     * and k-mer length substrings of the reference genome from the file
-     * passed as an argument.
+     * Populates class-level variables with the packed sequence, read-length
+     * windows, and k-mer length substrings of the reference genome from the
+     * file passed as an argument.
+     * <p>
+     * If an index file is given, the tables are mapped in from it instead
+     * of being rebuilt, unless it is missing or stale.
      *
-     * @params scanner A Scanner type object containing the reference genome file.
+     * @params file          The FASTA file containing the reference genome.
+     * @params indexFile     The index file to reuse, or null to always build.
+     * @throws IOException   if the files cannot be read or written
+     * @see                  ReferenceIndex
      */
-    private void populateRefs(Scanner scanner){
-	int refIndex  = 0;
-	int kmerIndex = 0;
-	String line;
-	String previous = "";
-	scanner.nextLine();
-	while(scanner.hasNextLine()){
-	    line = scanner.nextLine();
-	    genome += line;
-
-	    //Populate reference genome reads
-	    if(!previous.equals(""))
-		for(int i = line.length()-K; i < line.length(); i++){
-		    ref.putIfAbsent(previous.substring(i,line.length()) +
-				    line.substring(0,i+K-line.length()),
-				    refIndex++);
-		}
-	    for(int i = 0; i < line.length()-K; i++){
-		ref.putIfAbsent(line.substring(i,i+K),refIndex++);
-	    }
+    private void populateRefs(File file, File indexFile) throws IOException{
+	ReferenceIndex index;
+	if(indexFile == null)
+	    index = ReferenceIndex.build(file,K,MERLEN,window);
+	else
+	    index = ReferenceIndex.open(indexFile,file,K,MERLEN,window);
+	genome = index.genome;
+	ref = index.ref;
+	seeds = index.seeds;
+    }
 
-	    //Populate reference genome k-mers (length 17)
-	    //Also in charge of incrementing refIndex
-	    if(!previous.equals(""))
-		for(int i = line.length()-MERLEN; i < line.length(); i++){
-		    kmers.putIfAbsent(previous.substring(i,line.length()) +
-				      line.substring(0,i+MERLEN-line.length()),
-				      kmerIndex++);
-		}
-	    for(int i = 0; i < line.length()-MERLEN; i++)
-		kmers.putIfAbsent(line.substring(i,i+MERLEN),kmerIndex++);
-	    previous = line;
+    /**
+     * Looks a read up in the reference genome. A sparse index has no
+     * read-length windows, so there the read is placed by findSeeded.
+     *
+     * @param read the read to find
+     * @return     the position where read matches the genome exactly, or -1
+     */
+    private int findExact(CharSequence read){
+	if(read.length() != K)
+	    return -1;
+	if(window > 0)
+	    return findSeeded(read,false);
+	int pos = ref.get(KmerRoller.hash(read,0,K));
+	//The table is keyed by hash, so confirm the bases themselves
+	return pos >= 0 && matches(read,pos,false) ? pos : -1;
+    }
+
+    /**
+     * Looks a read up in the reference genome as its reverse complement,
+     * the way a read from the other strand matches.
+     *
+     * @param read the read to find
+     * @return     the position where its reverse complement matches the
+     *             genome exactly, or -1
+     */
+    private int findReverse(CharSequence read){
+	if(read.length() != K)
+	    return -1;
+	if(window > 0)
+	    return findSeeded(read,true);
+	int pos = ref.get(KmerRoller.reverseHash(read,0,K));
+	return pos >= 0 && matches(read,pos,true) ? pos : -1;
+    }
+
+    /**
+     * Looks a read up with a sparse index. The read's first minimizer is
+     * one the reference picked too wherever the read matches, so only
+     * its positions on the wanted strand are checked, base by base. A
+     * minimizer with more than SeedChainer.MAX_OCCURRENCES positions is
+     * not tried, and the read is left to checkRead.
+     *
+     * @param read    the read to find, K bases long
+     * @param reverse true to find its reverse complement instead
+     * @return        the position where it matches the genome exactly, or -1
+     */
+    private int findSeeded(CharSequence read, boolean reverse){
+	Minimizers picker = minimizers.get();
+	picker.reset();
+	KmerRoller roller = rollers.get();
+	roller.reset();
+	int i = 0;
+	for(boolean picked = false; !picked; i++){
+	    if(i == K)
+		return -1;
+	    boolean full = roller.add(read.charAt(i));
+	    picked = i+1 >= MERLEN && picker.add(full ? roller.canonical() : Bases.INVALID,i+1-MERLEN);
+	}
+	long kmer = picker.kmer();
+	int offset = picker.position();
+	int ordinal = seeds.find(kmer);
+	if(ordinal == LongIntMap.MISSING || seeds.end(ordinal)-seeds.start(ordinal) > SeedChainer.MAX_OCCURRENCES)
+	    return -1;
+	boolean forward = Bases.encode(read,offset,MERLEN) == kmer;
+	for(int s = seeds.start(ordinal); s < seeds.end(ordinal); s++){
+	    //The reference holds the read's own k-mer here, or its reverse complement
+	    if((forward != seeds.reverse(s)) == reverse)
+		continue;
+	    int pos = seeds.position(s)-(reverse ? K-offset-MERLEN : offset);
+	    if(pos >= 0 && pos+K <= genome.length() && matches(read,pos,reverse))
+		return pos;
 	}
-	scanner.close();
+	return -1;
+    }
+
+    //True if every base of a read, or of its reverse complement, matches
+    //the genome from pos
+    private boolean matches(CharSequence read, int pos, boolean reverse){
+	for(int i = 0; i < K; i++)
+	    if(genome.charAt(pos+i) != (reverse ? Bases.complement(read.charAt(K-1-i)) : read.charAt(i)))
+		return false;
+	return true;
     }
 
 
     /**
      * Captures reads without matches by checking them against the
-     * reference genome hashmap.
+     * reference genome hashmap, and checks those for errors.
+     * <p>
+     * This runs as a pipeline: the calling thread cuts the input into
+     * batches of BATCH lines and hands them to the workers, which map
+     * them independently. Results are merged strictly in batch order, so
+     * the variant tally comes out exactly as a single thread would build
+     * it. At most two batches per worker are in flight at once.
      *
-     * @return an ArrayList of "flawed" reads that did not match the ref genome
+     * @param parser   the reads, one read or "read,pair" per line, after a name line
+     * @param variants where the variants found are counted
+     * @param maxLines the most lines to accept, or 0 for no limit
+     * @return         the name line
+     * @throws IOException if the reads cannot be read, or there are more than maxLines
+     * @see            ReadParser
      */
-    private ArrayList<String> indexReads(){
-	Scanner scanner = new Scanner(System.in);
-	String read = "";
-	String pair = "";
-	ArrayList<String> unmatched = new ArrayList<String>();
+    private String indexReads(ReadParser parser, VariantTally variants, long maxLines) throws IOException{
+	ArrayDeque<Future<VariantTally>> pending = new ArrayDeque<Future<VariantTally>>();
+	String genomeName = parser.next() ? parser.line() : "";
+	int[] insert = null;
 
-	genomeName = scanner.nextLine();
-	
-	//For each read,attempt to index it into the hashmap
-	while(scanner.hasNextLine()){
-	    String[] lines = scanner.nextLine().split(",");
-	    read = lines[0];
-	    if(lines.length < 2){
-		if(!ref.containsKey(read))
-		    unmatched.add(read);
-		continue;
+	for(byte[] batch; (batch = parser.chunk(BATCH)) != null; ){
+	    if(maxLines > 0 && parser.lines() > maxLines){
+		//Let the batches already handed out finish before giving up
+		while(!pending.isEmpty())
+		    merge(pending.poll(),variants);
+		throw new IOException("More than " + maxLines + " lines of reads");
 	    }
-	    pair = lines[1];
+	    //The window is fixed before any batch is mapped, so every batch
+	    //sees the same one whatever the number of threads
+	    if(pending.isEmpty() && insert == null)
+		insert = learnInsertSize(batch);
+	    byte[] lines = batch;
+	    int[] mates = insert;
+	    pending.add(workers.submit(() -> mapBatch(lines,mates)));
+	    if(pending.size() >= threads*2)
+		merge(pending.poll(),variants);
+	}
+	while(!pending.isEmpty())
+	    merge(pending.poll(),variants);
+	return genomeName;
+    }
+
+    /**
+     * Learns how far apart the mates of a pair start, and whether they
+     * lie on the same strand, from the pairs whose mates both match the
+     * reference exactly on either strand.
+     * <p>
+     * Offsets are measured along the fragment: from the first mate to the
+     * second when the first matches forward, and the other way when it
+     * matches reversed. A pair read from either strand of the same
+     * fragment then gives the same offset, whatever the orientation.
+     *
+     * @param lines input lines, each a read or "read,pair"
+     * @return      the smallest and largest offset, and SAME_STRAND or
+     *              OPPOSITE_STRANDS, or null if too few pairs matched
+     * @throws IOException never, the lines are already in memory
+     */
+    private int[] learnInsertSize(byte[] lines) throws IOException{
+	int[][] offsets = new int[2][BATCH];
+	int[] n = new int[2];
+	ReadParser parser = ReadParser.of(lines);
+	while(parser.next()){
+	    if(parser.fields() < 2)
+		continue;
+	    CharSequence mate = parser.field(0);
+	    int first = findExact(mate);
+	    boolean firstReverse = first < 0 && (first = findReverse(mate)) >= 0;
+	    if(first < 0)
+		continue;
+	    mate = parser.field(1);
+	    int second = findExact(mate);
+	    boolean secondReverse = second < 0 && (second = findReverse(mate)) >= 0;
+	    if(second < 0)
+		continue;
+	    int strands = firstReverse == secondReverse ? SAME_STRAND : OPPOSITE_STRANDS;
+	    offsets[strands][n[strands]++] = firstReverse ? first-second : second-first;
+	}
+	int strands = n[OPPOSITE_STRANDS] > n[SAME_STRAND] ? OPPOSITE_STRANDS : SAME_STRAND;
+	if(n[strands] < MINPAIRS)
+	    return null;
+	Arrays.sort(offsets[strands],0,n[strands]);
+	//An indel between the mates moves the second one by its length
+	int tail = (int)(n[strands]*INSERT_TAIL);
+	return new int[]{offsets[strands][tail]-maxIndel,offsets[strands][n[strands]-1-tail]+maxIndel,strands};
+    }
+
+    /**
+     * Maps one batch of input lines. Runs on a worker thread.
+     *
+     * @param lines  the input lines, each a read or "read,pair"
+     * @param insert the window of offsets between mates and their strands,
+     *               as learned by learnInsertSize, or null if unknown
+     * @return       the variants found in the batch
+     * @throws IOException never, the lines are already in memory
+     */
+    private VariantTally mapBatch(byte[] lines, int[] insert) throws IOException{
+	VariantTally calls = new VariantTally();
+	ReadParser parser = ReadParser.of(lines);
+	while(parser.next()){
 	    //Unmatched reads must be checked for errors.
 	    //If they match an error time, a correctly formatted message
 	    //is printed, otherwise, it is treated like garbage and thrown out
-	    if(!ref.containsKey(read))
-		unmatched.add(read);
-	    if(!ref.containsKey(pair))
-	    	unmatched.add(pair);
+	    //A read matching the other strand exactly has no errors either
+	    CharSequence first = parser.field(0);
+	    int firstPos = findExact(first);
+	    boolean firstReverse = firstPos < 0 && (firstPos = findReverse(first)) >= 0;
+	    if(parser.fields() < 2){
+		if(firstPos < 0)
+		    checkRead(calls,first);
+		continue;
+	    }
+	    CharSequence second = parser.field(1);
+	    int secondPos = findExact(second);
+	    boolean secondReverse = secondPos < 0 && (secondPos = findReverse(second)) >= 0;
+	    //If only one mate matched, its partner is looked for near it, on
+	    //the strand the library puts it. Offsets run along the fragment,
+	    //from a forward first mate or towards a reversed one.
+	    if(insert != null && firstPos >= 0 && secondPos < 0){
+		boolean reverse = firstReverse != (insert[2] == OPPOSITE_STRANDS);
+		if(firstReverse)
+		    rescueMate(calls,second,firstPos-insert[1],firstPos-insert[0],reverse);
+		else
+		    rescueMate(calls,second,firstPos+insert[0],firstPos+insert[1],reverse);
+	    }
+	    else if(insert != null && firstPos < 0 && secondPos >= 0){
+		boolean reverse = secondReverse != (insert[2] == OPPOSITE_STRANDS);
+		if(reverse)
+		    rescueMate(calls,first,secondPos+insert[0],secondPos+insert[1],reverse);
+		else
+		    rescueMate(calls,first,secondPos-insert[1],secondPos-insert[0],reverse);
+	    }
+	    else{
+		if(firstPos < 0)
+		    checkRead(calls,first);
+		if(secondPos < 0)
+		    checkRead(calls,second);
+	    }
+	}
+	return calls;
+    }
+
+    /**
+     * Checks a read whose mate matched the reference, in the window where
+     * the insert size puts it. Every start in the window is compared with
+     * the read a word at a time. The start with the fewest mismatches is
+     * checked for SNPs; failing that, the start whose exact prefix is
+     * longest, at least a seed long, is checked for an indel after it.
+     * A read placed by neither is seeded against the whole genome.
+     * <p>
+     * A mate expected on the other strand is compared as its reverse
+     * complement, so the window is in forward positions either way.
+     *
+     * @param calls    Where found variants are recorded
+     * @param mate     the mate that did not match
+     * @param from     the first start to try
+     * @param to       the last start to try
+     * @param reverse  whether the mate is expected on the other strand
+     */
+    private void rescueMate(VariantTally calls, CharSequence mate, int from, int to, boolean reverse){
+	if(mate.length() < K)
+	    return;
+	CharSequence unmatched = mate;
+	if(reverse){
+	    //Not complements, which seeding the mate in checkRead reuses
+	    StringBuilder complement = mateComplements.get();
+	    complement.setLength(0);
+	    for(int i = K-1; i >= 0; i--)
+		complement.append(Bases.complement(mate.charAt(i)));
+	    unmatched = complement;
 	}
-	scanner.close();
-	return unmatched;
+	long[] chunks = mateChunks.get();
+	for(int c = 0; c < chunks.length; c++)
+	    chunks[c] = Bases.encode(unmatched,c*Bases.MAX_K,Math.min(Bases.MAX_K,K-c*Bases.MAX_K));
+
+	int best = -1;
+	int bestCount = K+1;
+	int anchor = -1;
+	int anchorFirst = 0;
+	for(int pos = Math.max(0,from); pos <= to && pos+K <= genome.length(); pos++){
+	    int count = 0;
+	    int first = K;
+	    for(int c = 0; c < chunks.length; c++){
+		int off = c*Bases.MAX_K;
+		long diff = mismatches(chunks[c],unmatched,off,pos+off);
+		if(diff != 0 && first == K)
+		    first = off+Math.min(Bases.MAX_K,K-off)-1-(63-Long.numberOfLeadingZeros(diff))/2;
+		count += Long.bitCount(diff);
+	    }
+	    if(count < bestCount){
+		bestCount = count;
+		best = pos;
+	    }
+	    if(first > anchorFirst){
+		anchorFirst = first;
+		anchor = pos;
+	    }
+	}
+	if(best >= 0 && checkSNP(calls,unmatched,best))
+	    return;
+	if(anchorFirst >= MERLEN)
+	    checkIndel(calls,unmatched,anchor,true);
+	else
+	    checkRead(calls,mate);
     }
 
     /**
-     * Checks an unmatched read for places substrings of it (k-mers)
-     * match the reference genome.
+     * Waits for a batch to finish and appends its variants to the totals.
+     */
+    private void merge(Future<VariantTally> batch, VariantTally variants){
+	try{
+	    variants.addAll(batch.get());
+	}
+	catch(InterruptedException | ExecutionException e){
+	    throw new IllegalStateException("Read mapping failed",e);
+	}
+    }
+
+    /**
+     * Checks a read that did not match the reference exactly, once per
+     * distinct read: a read already in the cache has its variants counted
+     * again without being mapped.
+     *
+     * @param calls     Where found variants are recorded
+     * @param unmatched Contains the unmatched read
+     * @see             ReadCache
+     */
+    private void checkRead(VariantTally calls, CharSequence unmatched){
+	long[] key = keys.get();
+	if(cache == null || unmatched.length() < K || !ReadCache.key(unmatched,key)){
+	    mapRead(calls,unmatched);
+	    return;
+	}
+	if(cache.replay(key,calls))
+	    return;
+	VariantTally called = scratch.get();
+	called.clear();
+	mapRead(called,unmatched);
+	cache.put(key,called);
+	calls.addAll(called);
+    }
+
+    /**
+     * Checks a read that did not match the reference exactly for SNPs,
+     * or failing that, for insertions and deletions.
      * <p>
-     * If multiple k-mers match, the differences are added to the list 
-     * of SNPs. Otherwise, the difference is likely a read-error, and
-     * can be ignored.
+     * Every k-mer of the read (only its minimizers with a sparse index)
+     * is looked up at all of its positions, and the hits vote for where
+     * the read starts. Only the best chain of hits is verified: at its
+     * main diagonal for SNPs, and if that fails, from its leftmost hit for
+     * indels. That hit may already lie past an indel near the read's
+     * start, so the read is aligned from its first base with the start
+     * left free. A read needs two hits to be placed at all.
      *
-     * @param  snpOutput   A data structure containing current found SNPs. Updated in the function
+     * @param calls     Where found variants are recorded
+     * @param unmatched Contains the unmatched read
+     * @see             SeedChainer
+     */
+    private void mapRead(VariantTally calls, CharSequence unmatched){
+	if(unmatched.length() < K)
+	    return;
+	SeedChainer chainer = chainers.get();
+	chainer.reset(K);
+	Minimizers picker = window > 0 ? minimizers.get() : null;
+	if(picker != null)
+	    picker.reset();
+
+	//Roll the read's k-mers along it, a base at a time
+	KmerRoller roller = rollers.get();
+	roller.reset();
+	for(int i = 0; i < K; i++){
+	    boolean full = roller.add(unmatched.charAt(i));
+	    if(i+1 < MERLEN)
+		continue;
+	    int at = i+1-MERLEN;
+	    long seed = full ? roller.canonical() : Bases.INVALID;
+	    if(picker == null)
+		chainer.add(seed,roller.forward(),at);
+	    else if(picker.add(seed,at)){
+		long kmer = picker.kmer();
+		int pos = picker.position();
+		chainer.add(kmer,Bases.encode(unmatched,pos,MERLEN) == kmer,pos);
+	    }
+	}
+	if(chainer.chain(maxIndel) < 2)
+	    return;
+
+	//A read from the other strand is checked as its reverse complement
+	CharSequence read = unmatched;
+	if(chainer.reverse()){
+	    StringBuilder complement = complements.get();
+	    complement.setLength(0);
+	    for(int i = K-1; i >= 0; i--)
+		complement.append(Bases.complement(unmatched.charAt(i)));
+	    read = complement;
+	}
+
+	//If the read does not hold a few SNPs, check for INS/DEL
+	if(chainer.gapped() || !checkSNP(calls,read,chainer.diagonal()))
+	    checkIndel(calls,read,chainer.anchor(),false);
+    }
+
+    /**
+     * Checks an unmatched read for SNPs where its k-mers place it in the
+     * reference genome.
+     * <p>
+     * If at most MAXSNPS bases differ, the differences are added to the
+     * list of SNPs. Otherwise, the read likely holds an indel, or too
+     * many read-errors to be trusted.
+     *
+     * @param  calls       A data structure counting current found variants. Updated in the function
      * @param  unmatched   Contains the unmatched read
-     * @param  indexOfMer1 The expected location in the reference genome of unmatched's first mer
-     * @param  indexOfMer2 The expected location in the reference genome of unmatched's second mer
-     * @param  indexOfMer3 The expected location in the reference genome of unmatched's third mer
-     * @return             a boolean indicating if the read was a SNP or a read-error. Used to inform
+     * @param  indexOfRead The location in the reference genome where the read's k-mers place its start
+     * @return             a boolean indicating if the read was explained by SNPs. Used to inform
      *                     checkIndel if it should run or not.      
      * @see                #checkIndel
      */
-    private boolean checkSNP(ArrayList<String> snpOutput, String unmatched, int indexOfMer1, int indexOfMer2, int indexOfMer3){
-	ArrayList<String> testOutput = new ArrayList<String>();
-	//First check the three k-mers of the read
-	int indexOfRead = -1;
-	if((indexOfMer1 == indexOfMer2 ||
-	    indexOfMer2 == indexOfMer3 ||
-	    indexOfMer3 == indexOfMer1)){
-	    if(indexOfMer1 > -1)
-		indexOfRead = indexOfMer1;
-	    else
-		indexOfRead = indexOfMer2;
-	}
+    private boolean checkSNP(VariantTally calls, CharSequence unmatched, int indexOfRead){
 	//If a match to the unmatched read is found, check for the error
-	if(indexOfRead >= 0){
-	    String OGRead = genome.substring(indexOfRead,indexOfRead+K);
-	    
-	    //First, check for SNP's
-	    String snpout = "";
+	if(indexOfRead >= 0 && indexOfRead+K <= genome.length()){
+	    //First, check for SNP's, a word of bases at a time. Up to
+	    //MAXSNPS read offsets are kept 16 bits apiece in found.
 	    int snpfound = 0;
-	    for(int i = 0; i < K; i++){
-		if(OGRead.charAt(i) != unmatched.charAt(i)){
-		    //Must check the case where multiple non-consecutive errors are found
-		    if(snpfound > 2){
-			testOutput.clear();
-			break;
-		    }
-		    testOutput.add(OGRead.charAt(i) + "," + unmatched.charAt(i) + "," + (indexOfRead+i));
-		    snpfound++;
-		}
+	    long found = 0;
+	    for(int off = 0; off < K; off += Bases.MAX_K){
+		int len = Math.min(Bases.MAX_K,K-off);
+		long diff = mismatches(unmatched,off,indexOfRead+off);
+		//Must check the case where multiple non-consecutive errors are found
+		snpfound += Long.bitCount(diff);
+		if(snpfound > MAXSNPS)
+		    return false;
+		//Walk the set bits from the highest, the leftmost mismatch
+		for(; diff != 0; diff ^= Long.highestOneBit(diff))
+		    found = found << 16 | (off+len-1-(63-Long.numberOfLeadingZeros(diff))/2);
+	    }
+	    for(int n = snpfound-1; n >= 0; n--){
+		int i = (int)(found >>> 16*n) & 0xffff;
+		calls.add(VariantKey.snp(genome.charAt(indexOfRead+i),unmatched.charAt(i),indexOfRead+i));
 	    }
-	    for(String to : testOutput)
-		snpOutput.add(to);
-	    testOutput.clear();
 	    return true;
 	}
 	return false;
     }
+    /**
+     * Compares the chunk of up to Bases.MAX_K bases of a read at off with
+     * the reference in one step.
+     *
+     * @param read the read being compared
+     * @param off  the offset in read of the chunk to compare
+     * @param pos  the position in genome to compare it with
+     * @return     the mismatch bits, one per differing base
+     * @see        PackedSequence#mismatches
+     */
+    private long mismatches(CharSequence read, int off, int pos){
+	return mismatches(Bases.encode(read,off,Math.min(Bases.MAX_K,K-off)),read,off,pos);
+    }
+
+    /**
+     * As mismatches(read, off, pos), for a chunk of the read already encoded.
+     *
+     * @param bases the chunk's code, or Bases.INVALID if it holds an N
+     */
+    private long mismatches(long bases, CharSequence read, int off, int pos){
+	return genome.mismatches(bases,read,off,Math.min(Bases.MAX_K,K-off),pos);
+    }
+
     /**
      * Checks a given unmatched read for places where there is a gap
      * in either the reference or new genome. 
@@ -269,77 +923,84 @@ public class Alignment{
      * ABCDEFGHIJK
      * ABCD___EFGH
      * <p>
-     * This is acheived by checking nearby indexes in the reference genome for matching substrings.
+     * This is acheived by a banded alignment of the read against the reference
+     * from the read's first mismatch onward, which can bridge gaps of up to
+     * maxIndel bases. Alignments needing more than MAXSNPS mismatches as well
+     * are not trusted. If the read's start is not known to match, the whole
+     * read is aligned instead, free to start on any nearby diagonal.
      * <p>
      * If a gap is found, it is added to the INS or DEL data structures.
      *
-     * @param insOutput   A data structure containing current found insertions. Updated in the function 
-     * @param delOutput   A data structure containing current found deletions. Updated in the function
+     * @param calls       A data structure counting current found variants. Updated in the function
      * @param unmatched   Contains the unmatched read
-     * @param indexOfMer1 The expected location in the reference genome of unmatched's first mer
+     * @param indexOfMer1 The expected location in the reference genome of unmatched's first base
+     * @param anchored    true if the read's first MERLEN bases are known to match there
+     * @see               BandedAligner
      */
-    private void checkIndel(ArrayList<String> insOutput, ArrayList<String> delOutput, String unmatched, int indexOfMer1){
-	boolean legalChange = true;
-	for(int i = 0; i < K; i++){
-	    String OGRead = genome.substring(indexOfMer1,indexOfMer1+K);
-	    if(OGRead.charAt(i) != unmatched.charAt(i)){
-		//If a mismatch is found, check every index after it, to see if the sequence repeats
-
-		//This finds insertions, where unmatched+c = OGRead for all indices past the mismatch
-		for(int c = 0; c < 5; c++){
-		    legalChange = true;
-		    if(i+c > K)
-			break;
-		    for(int j = i; j < K-c; j++){
-			if(OGRead.charAt(j) != unmatched.charAt(j+c))
-			    legalChange = false;
-		    }
-		    if(legalChange)
-			insOutput.add(unmatched.substring(i,i+c) + "," + (indexOfMer1+i)); 
-		}
-			
-		//This finds deletions, where unmatched = OGRead+c for all indices past the mismatch
-		for(int c = 0; c < 5; c++){
-		    legalChange = true;
-		    if(i+c > K)
-			break;
-		    for(int j = i; j < K-c; j++){
-			if(OGRead.charAt(j+c) != unmatched.charAt(c))
-			    legalChange = false;
-		    }
-		    if(legalChange)
-			delOutput.add(OGRead.substring(i,i+c) + "," + (indexOfMer1+i)); 
-		}
-		break;
-	    }
+    private void checkIndel(VariantTally calls, CharSequence unmatched, int indexOfMer1, boolean anchored){
+	//The first mer may not have been found, or may sit too near the end
+	if(indexOfMer1 < 0 || indexOfMer1+K > genome.length())
+	    return;
+	BandedAligner aligner = aligners.get();
+	if(!anchored)
+	    aligner.align(unmatched,0,K,genome,indexOfMer1,true);
+	else if(!alignFromMismatch(aligner,unmatched,indexOfMer1))
+	    return;
+	if(aligner.mismatches() > MAXSNPS)
+	    return;
+	for(int g = 0; g < aligner.gaps(); g++){
+	    int length = aligner.gapLength(g);
+	    if(length > maxIndel)
+		continue;
+	    //A free start may skip up to maxIndel bases and then make up for
+	    //it with a gap; any gap that close to the start is not trusted
+	    if(!anchored && aligner.gapRead(g) <= 2*maxIndel)
+		continue;
+	    int at = indexOfMer1+aligner.gapRef(g);
+	    if(aligner.gapType(g) == VariantKey.INS)
+		calls.add(VariantKey.ins(at,unmatched,aligner.gapRead(g),aligner.gapRead(g)+length));
+	    else
+		calls.add(VariantKey.del(at,genome,at,at+length));
+	}
+    }
+
+    /**
+     * Aligns a read whose start matches the reference from its first
+     * mismatch on; everything before it aligns as it is.
+     *
+     * @return false if the read has no mismatch there, and was not aligned
+     */
+    private boolean alignFromMismatch(BandedAligner aligner, CharSequence unmatched, int indexOfMer1){
+	int first = K;
+	for(int off = 0; off < K && first == K; off += Bases.MAX_K){
+	    long diff = mismatches(unmatched,off,indexOfMer1+off);
+	    if(diff != 0)
+		first = off+Math.min(Bases.MAX_K,K-off)-1-(63-Long.numberOfLeadingZeros(diff))/2;
 	}
+	if(first == K)
+	    return false;
+	aligner.align(unmatched,first,K,genome,indexOfMer1);
+	return true;
     }
     
     /**
      * Some read errors may be due to tool malfunction. This method
      * audits and prints only mutations with a certain number of appearances.
+     * <p>
+     * Mutations are printed in the order they were first found. The first
+     * appearance itself is not counted, as it was when each one was
+     * tallied from a list.
      *
-     * @param output the list of mutations to be audited
-     * @param min    the minimum number of appearances a mutation needs to be printed.
+     * @param out      where to print
+     * @param variants the variants found in a sample
+     * @param type     the kind of mutation to print, SNP, INS or DEL
+     * @param min      the minimum number of appearances a mutation needs to be printed.
      */
-    private void auditErrors(ArrayList<String> output, int min){
-	HashMap<String,Integer> appearances = new HashMap<String,Integer>(10000);
-	HashMap<String,Boolean> printed = new HashMap<String,Boolean>(10000);
-
-	//Count an error's detected appearances
-	for(String out : output){
-	    if(appearances.get(out) != null)
-		appearances.put(out,appearances.get(out)+1);
-	    else
-		appearances.put(out,0);
-	}
-	for(String out : output){
-	    if(printed.get(out) != null)
-		continue;
-	    if(appearances.get(out) > min){
-		System.out.println(out);
-		printed.put(out,true);
-	    }
+    private void auditErrors(PrintStream out, VariantTally variants, int type, int min){
+	for(int i = 0; i < variants.size(); i++){
+	    long key = variants.key(i);
+	    if(VariantKey.type(key) == type && variants.count(key)-1 > min)
+		out.println(VariantKey.format(key));
 	}
     }
 
@@ -349,15 +1010,8 @@ public class Alignment{
      */
     private void clearRefGenome(){
 	ref.clear();
-	kmers.clear();
+	seeds.clear();
 	hasMatch.clear();
-	genome = "";
-    }
-
-    /**
-     *  Clear the data structures that contain information on the new genome.
-     */
-    private void clearNewGenome(){
-	unmatcheds.clear();
+	genome.clear();
     }
 }
@@ -0,0 +1,286 @@
+/**
+ * Banded affine-gap alignment of a read against the reference, anchored
+ * at the read's seed position, used to find insertions and deletions.
+ * <p>
+ * The read is aligned from its first base, which sits at the seed
+ * position in the genome, to its last base, which may end anywhere in
+ * the reference. A seed only vouches for the read from its own offset
+ * on, so unless the read's start is known to match, the alignment may
+ * also begin on any diagonal of the band free of charge (semi-global):
+ * an indel before the seed is then placed where it is, rather than
+ * bridged by a second, made-up gap of the opposite kind near the read's
+ * start. Only cells within band diagonals of the seed diagonal
+ * are filled (Gotoh's recurrences), so an alignment costs
+ * O(length &times; band) and finds indels of up to band bases. Gaps are
+ * charged OPEN + EXTEND per base and mismatches MISMATCH, so one long
+ * gap is preferred to several short ones. Among equal alignments gaps
+ * are placed as far right as possible, at the first base where the read
+ * stops matching, the position reported for indels before.
+ * <p>
+ * An aligner keeps its buffers between calls and is not thread-safe;
+ * each worker needs its own.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ */
+
+import java.util.Arrays;
+
+final class BandedAligner{
+    private static final int MISMATCH = 1;
+    private static final int OPEN = 2;
+    private static final int EXTEND = 1;
+    private static final int INF = Integer.MAX_VALUE/4;
+
+    //Trace bits: where H came from, and whether E/F extended a gap
+    private static final byte FROM_DIAG = 0;
+    private static final byte FROM_DEL = 1;
+    private static final byte FROM_INS = 2;
+    private static final byte DEL_EXTENDED = 4;
+    private static final byte INS_EXTENDED = 8;
+    //The alignment may start at this cell, free of charge
+    private static final byte START = 16;
+
+    //The most gaps reported from one alignment
+    private static final int MAX_GAPS = 8;
+
+    private final int band;
+    private final int width;
+    private int[] h, e, f, hPrev, ePrev, fPrev;
+    private byte[] trace;
+
+    private int mismatches;
+    private int gaps;
+    private final int[] gapType = new int[MAX_GAPS];
+    private final int[] gapRead = new int[MAX_GAPS];
+    private final int[] gapRef = new int[MAX_GAPS];
+    private final int[] gapLength = new int[MAX_GAPS];
+
+    /**
+     * @param length the longest read that will be aligned
+     * @param band   the number of diagonals either side of the seed, the longest indel found
+     */
+    public BandedAligner(int length, int band){
+	this.band = band;
+	this.width = 2*band+1;
+	h = new int[width];
+	e = new int[width];
+	f = new int[width];
+	hPrev = new int[width];
+	ePrev = new int[width];
+	fPrev = new int[width];
+	trace = new byte[(length+1)*width];
+    }
+
+    /**
+     * Aligns read[from, to) against the genome from pos+from onwards. The
+     * bases before from are taken to match the genome exactly.
+     *
+     * @param read   the read to align
+     * @param from   the first read offset to align, usually its first mismatch
+     * @param to     the read offset to stop at
+     * @param genome the reference genome
+     * @param pos    the position in genome of the read's first base
+     * @return       the cost of the best alignment
+     */
+    public int align(CharSequence read, int from, int to, PackedSequence genome, int pos){
+	return align(read,from,to,genome,pos,false);
+    }
+
+    /**
+     * As align(read, from, to, genome, pos), but if freeStart is set the
+     * alignment may begin on any diagonal of the band at no cost, leaving
+     * up to band bases of the read or the reference before it unaligned.
+     * Such a leading gap is not reported.
+     *
+     * @param freeStart true if the bases at from are not known to sit at pos+from
+     */
+    public int align(CharSequence read, int from, int to, PackedSequence genome, int pos, boolean freeStart){
+	int rows = to-from;
+	int refLength = Math.min(rows+band,genome.length()-(pos+from));
+	if((rows+1)*width > trace.length)
+	    trace = new byte[(rows+1)*width];
+
+	//Row 0: only ref bases can be skipped, as a deletion
+	Arrays.fill(h,INF);
+	Arrays.fill(e,INF);
+	Arrays.fill(f,INF);
+	h[band] = 0;
+	trace[band] = START;
+	for(int d = 1; d <= band && d <= refLength; d++){
+	    if(freeStart){
+		h[band+d] = 0;
+		trace[band+d] = START;
+		continue;
+	    }
+	    e[band+d] = OPEN+EXTEND*d;
+	    h[band+d] = e[band+d];
+	    trace[band+d] = (byte)(FROM_DEL | (d > 1 ? DEL_EXTENDED : 0));
+	}
+
+	for(int i = 1; i <= rows; i++){
+	    int[] swap = hPrev; hPrev = h; h = swap;
+	    swap = ePrev; ePrev = e; e = swap;
+	    swap = fPrev; fPrev = f; f = swap;
+	    char base = read.charAt(from+i-1);
+	    for(int k = 0; k < width; k++){
+		int j = i+k-band;
+		if(j < 0 || j > refLength){
+		    h[k] = e[k] = f[k] = INF;
+		    continue;
+		}
+		//Or leading read bases are skipped, as an insertion
+		if(freeStart && j == 0){
+		    h[k] = 0;
+		    e[k] = f[k] = INF;
+		    trace[i*width+k] = START;
+		    continue;
+		}
+		byte t = 0;
+		//Deletion: skip ref base j-1, from the cell to the left
+		int del = INF;
+		if(k > 0){
+		    del = h[k-1]+OPEN+EXTEND;
+		    if(e[k-1]+EXTEND <= del){
+			del = e[k-1]+EXTEND;
+			t |= DEL_EXTENDED;
+		    }
+		}
+		//Insertion: skip read base i-1, from the cell above
+		int ins = INF;
+		if(k+1 < width){
+		    ins = hPrev[k+1]+OPEN+EXTEND;
+		    if(fPrev[k+1]+EXTEND <= ins){
+			ins = fPrev[k+1]+EXTEND;
+			t |= INS_EXTENDED;
+		    }
+		}
+		int diag = INF;
+		if(j > 0)
+		    diag = hPrev[k] + (Bases.code(base) == genome.code(pos+from+j-1) &&
+				       !genome.isAmbiguous(pos+from+j-1,pos+from+j) ? 0 : MISMATCH);
+		//On a tie take the gap, leaving it as far right as possible
+		int best = diag;
+		byte source = FROM_DIAG;
+		if(ins <= best){
+		    best = ins;
+		    source = FROM_INS;
+		}
+		if(del <= best){
+		    best = del;
+		    source = FROM_DEL;
+		}
+		e[k] = del;
+		f[k] = ins;
+		h[k] = best;
+		trace[i*width+k] = (byte)(t | source);
+	    }
+	}
+
+	//The read may end on any diagonal; prefer the one nearest the seed
+	int end = band;
+	for(int d = 1; d <= band; d++){
+	    if(h[band+d] < h[end])
+		end = band+d;
+	    if(h[band-d] < h[end])
+		end = band-d;
+	}
+	traceback(read,from,rows,end,genome,pos);
+	return h[end];
+    }
+
+    /**
+     * @return the number of mismatched bases in the last alignment
+     */
+    public int mismatches(){
+	return mismatches;
+    }
+
+    /**
+     * @return the number of gaps in the last alignment, at most MAX_GAPS
+     */
+    public int gaps(){
+	return gaps;
+    }
+
+    /**
+     * @return VariantKey.INS or VariantKey.DEL
+     */
+    public int gapType(int gap){
+	return gapType[gap];
+    }
+
+    /**
+     * @return the offset in the read of the gap: its first inserted base,
+     *         or the base following a deletion
+     */
+    public int gapRead(int gap){
+	return gapRead[gap];
+    }
+
+    /**
+     * @return the offset from the seed position of the gap: its first
+     *         deleted base, or the base following an insertion
+     */
+    public int gapRef(int gap){
+	return gapRef[gap];
+    }
+
+    public int gapLength(int gap){
+	return gapLength[gap];
+    }
+
+    //Walks the trace back from the end cell, collecting gaps right to left
+    private void traceback(CharSequence read, int from, int rows, int k, PackedSequence genome, int pos){
+	mismatches = 0;
+	gaps = 0;
+	int i = rows;
+	int state = FROM_DIAG;
+	int runType = -1;
+	int runLength = 0;
+	while(i > 0 || k != band){
+	    int j = i+k-band;
+	    byte t = trace[i*width+k];
+	    if(state == FROM_DIAG && (t & START) != 0)
+		break;
+	    if(state == FROM_DIAG && (t & 3) != FROM_DIAG){
+		state = t & 3;
+		continue;
+	    }
+	    int type = state == FROM_DEL ? VariantKey.DEL : state == FROM_INS ? VariantKey.INS : -1;
+	    if(type != runType && runLength > 0)
+		addGap(runType,runLength,from+i,from+j);
+	    runLength = type == runType ? runLength+1 : 1;
+	    runType = type;
+	    if(state == FROM_DIAG){
+		if(Bases.code(read.charAt(from+i-1)) != genome.code(pos+from+j-1) ||
+		   genome.isAmbiguous(pos+from+j-1,pos+from+j))
+		    mismatches++;
+		i--;
+	    }
+	    else if(state == FROM_DEL){
+		state = (t & DEL_EXTENDED) != 0 ? FROM_DEL : FROM_DIAG;
+		k--;
+	    }
+	    else{
+		state = (t & INS_EXTENDED) != 0 ? FROM_INS : FROM_DIAG;
+		i--;
+		k++;
+	    }
+	}
+	if(runType >= 0)
+	    addGap(runType,runLength,from+i,from+i+k-band);
+    }
+
+    //Records a gap whose run ended (walking backwards) at read offset
+    //readAt and ref offset refAt, i.e. the gap starts there
+    private void addGap(int type, int length, int readAt, int refAt){
+	if(type < 0 || gaps == MAX_GAPS)
+	    return;
+	gapType[gaps] = type;
+	gapLength[gaps] = length;
+	gapRead[gaps] = readAt;
+	gapRef[gaps] = refAt;
+	gaps++;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Helpers for the 2-bit nucleotide encoding shared by the packed
+ * reference genome and the k-mer indexes.
+ * <p>
+ * Bases are encoded as A=0, C=1, G=2, T=3, and a k-mer is encoded with
+ * its first base in the most significant position, so that numeric order
+ * matches lexicographic order. Any other character (N, IUPAC codes)
+ * has no encoding, and k-mers containing one are reported as INVALID.
+ * K-mers are limited to 31 bases so that INVALID (-1) can never be
+ * mistaken for a real k-mer.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ */
+
+import java.util.Arrays;
+
+final class Bases{
+    public static final long INVALID = -1L;
+    public static final int MAX_K = 31;
+
+    private static final char[] BASES = {'A','C','G','T'};
+    private static final byte[] CODES = new byte[128];
+    static{
+	Arrays.fill(CODES,(byte)-1);
+	CODES['A'] = 0; CODES['a'] = 0;
+	CODES['C'] = 1; CODES['c'] = 1;
+	CODES['G'] = 2; CODES['g'] = 2;
+	CODES['T'] = 3; CODES['t'] = 3;
+    }
+
+    private Bases(){}
+
+    /**
+     * Gives the 2-bit code of a base.
+     *
+     * @param c the base character, upper or lower case
+     * @return  the code 0-3, or -1 if c is not one of ACGT
+     */
+    public static int code(int c){
+	if(c < 0 || c >= 128)
+	    return -1;
+	return CODES[c];
+    }
+
+    /**
+     * Gives the upper-case base character for a 2-bit code.
+     *
+     * @param code a code in the range 0-3
+     * @return     the matching base character
+     */
+    public static char base(int code){
+	return BASES[code];
+    }
+
+    /**
+     * Gives the base paired with a base on the other strand.
+     *
+     * @param c the base character, upper or lower case
+     * @return  its upper-case complement, or 'N' if c is not one of ACGT
+     */
+    public static char complement(int c){
+	int code = code(c);
+	return code < 0 ? 'N' : BASES[3-code];
+    }
+
+    /**
+     * Encodes len characters of a sequence, starting at from, as a k-mer.
+     *
+     * @param seq  the sequence to read from
+     * @param from the index of the k-mer's first base
+     * @param len  the k-mer length, at most MAX_K
+     * @return     the 2-bit encoded k-mer, or INVALID if it contains a non-ACGT base
+     */
+    public static long encode(CharSequence seq, int from, int len){
+	long kmer = 0;
+	for(int i = from; i < from+len; i++){
+	    int c = code(seq.charAt(i));
+	    if(c < 0)
+		return INVALID;
+	    kmer = (kmer << 2) | c;
+	}
+	return kmer;
+    }
+
+    /**
+     * Scrambles the bits of a 64-bit value (the MurmurHash3 finalizer).
+     *
+     * @param x the value to scramble
+     * @return  the scrambled value
+     */
+    public static long mix(long x){
+	x ^= x >>> 33;
+	x *= 0xff51afd7ed558ccdL;
+	x ^= x >>> 33;
+	x *= 0xc4ceb9fe1a85ec53L;
+	x ^= x >>> 33;
+	return x;
+    }
+}
@@ -1,8 +1,8 @@
 /**
  * This program tries to construct a full genome from reads.
  * <p> 
- * It recieves FASTA-style input and converts it into a graph input 
- * format, which looks like:
+ * It recieves FASTA-style input and converts it into an OverlapGraph,
+ * which written out looks like:
  * <ul>
  * <li>1 -> 2,3,4</li>
  * <li>2 -> 1,4</li>
@@ -18,6 +18,21 @@
  * Finally, isolated cycles are found by checking 1-1 nodes which have not 
  * been visited by prior analysis.
  * <p>
+ * Before the walks, the graph is simplified: dead-end branches shorter
+ * than a read (tips) and short paths that split off and rejoin the
+ * graph (bubbles) are removed unless they are the best-covered way on.
+ * <p>
+ * Before any of that, single-base errors are corrected towards k-mers
+ * seen at least SOLID times, and reads still holding a k-mer seen fewer
+ * than THRESHOLD times are dropped as likely errors. The k-mers are counted by
+ * --threads workers (default: one per processor), exactly, or with
+ * --sketch MB in a count-min sketch of that many megabytes. The same
+ * number of workers correct the reads and walk the paths.
+ * <p>
+ * Reads are held packed in a ReadStore, which grows with the input and
+ * spills to a file in --spill-dir (default: the temporary directory)
+ * once it holds more than --memory MB (default: a quarter of the heap).
+ * <p>
  * The resulting FASTA-formatted data file contains every confidently
  * reconstructed section of the genome.
  * 
@@ -25,204 +40,292 @@
  * @version 0.3
  */
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 public class Contig{
-    private static ArrayList<String[]> graph;
+    private static OverlapGraph graph;
+    //The graph's edges turned around, built once for simplifying it.
+    //Edges are only ever removed with a read, so an edge in it still
+    //exists while its source read has not been removed
+    private static OverlapGraph predecessors;
     private static boolean[] visited;
-    private static final int NODES = 20000;
     private static final int THRESHOLD = 2;
+    //How many times a k-mer must be seen to correct a read towards it.
+    //Errors repeat often enough at high coverage that THRESHOLD alone
+    //would take many of them as real
+    private static final int SOLID = 5;
     private static final int MERLEN = 30;
-    private static String[] mers;
+    //Reads shorter than this are too short to assemble
+    private static final int MIN_LENGTH = 50;
+    //A tip is only clipped if its reads average less than 1/TIP_RATIO
+    //of the copies of the reads on the best way on
+    private static final int TIP_RATIO = 4;
+    private static ReadStore reads;
+    //How many times each distinct read was seen
+    private static int[] copies;
+    //Reads dropped by the k-mer filter
+    private static BitSet removed;
+    //How many reads share each read's (K-1)-mer prefix, and how many
+    //reads end in it
+    private static int[] edgesFrom;
+    private static int[] edgesTo;
+    //The reads sharing each read's (K-1)-mer prefix, linked in a ring
+    private static int[] samePrefix;
 
     /**
      * Called when the program is run. Stitches together other modules.
      *
      * @param args The passed in command-line arguments.
+     * @throws IOException if the reads cannot be read
      */
-    public static void main(String[] args){
-	reads = new String[NODES];
-	graph = new ArrayList<String[]>();
-	visited = new boolean[NODES];
-
-	String graphAsString = "";
-	int[] edgesTo = new int[NODES];
-	int[] edgesFrom = new int[NODES];
-	Scanner scanner = new Scanner(System.in);
-	
-	//Code to sort input into a graph
-	String firstLine = scanner.nextLine().split(",")[0];
-	int K = firstLine.length();
-	reads[0] = firstLine;
-	for(int i = 1; scanner.hasNextLine(); i++){
-	    reads[i] = scanner.nextLine().split(",")[0];
-	}
-
-	//Preprocess reads by removing those with low-appearance k-mers.
-	//This can be done by populating a hashtable of kmers-># appearances,
-	//And then looping through it and deleting reads with low appearances
-	Hashtable<String,Integer> kmers = new Hashtable<String,Integer>(NODES);
-	for(String read : reads){
-	    if(read.length() < 50)
-		    continue;
-	    for(int i = 0; i <= (K - MERLEN); i++){
-		if(kmers.get(read.substring(i,i+MERLEN)) == null)
-		    kmers.put(read.substring(i,i+MERLEN),1);
-		else
-		    kmers.put(read.substring(i,i+MERLEN),kmers.get(mer.substring(i,i+MERLEN))+1);
-					
+    public static void main(String[] args) throws IOException{
+	int threads = Runtime.getRuntime().availableProcessors();
+	long sketchBytes = 0;
+	long memory = Runtime.getRuntime().maxMemory()/4;
+	File spillDir = null;
+	for(int arg = 0; arg < args.length; arg++){
+	    if(args[arg].equals("--threads"))
+		threads = Math.max(1,Integer.parseInt(args[++arg]));
+	    else if(args[arg].equals("--sketch"))
+		sketchBytes = Long.parseLong(args[++arg]) << 20;
+	    else if(args[arg].equals("--memory"))
+		memory = Long.parseLong(args[++arg]) << 20;
+	    else if(args[arg].equals("--spill-dir"))
+		spillDir = new File(args[++arg]);
+	    else{
+		System.out.println("Unknown option " + args[arg]);
+		return;
 	    }
 	}
-
-	//With the hashtable populated, it's time to remove reads
-	//I remove them by setting their value to an illegal string
-	for(int i = 0; i < reads.length; i++){ //cannot be done w/ for:each b/c item is mutated
-	    if(reads[i].length() < 50){
-		reads[i] = "OFF";
-		continue;
-	    }
-	    for(int j = 0; j <= (K-MERLEN); j++)
-	    	if(kmers.get(reads[i].substring(j,j+MERLEN)) < THRESHOLD){
-	    	    reads[i] = "OFF"; break;}
+	reads = new ReadStore(memory,spillDir);
+	copies = new int[1024];
+	try{
+	    assemble(threads,sketchBytes);
+	}
+	finally{
+	    reads.close();
 	}
+    }
 
-	//Remove duplicate reads. A genome sample will obviously have
-	//multiple copies of the same section of RNA. Only keep one.
-	for(int suf = 0; suf < reads.length; suf++){
-	    if(reads[suf].equals("OFF"))
+    /**
+     * Reads, filters and assembles the reads on stdin.
+     *
+     * @param threads     the number of workers counting k-mers
+     * @param sketchBytes the size of the k-mer count-min sketch, 0 to count exactly
+     * @throws IOException if the reads cannot be read or stored
+     */
+    private static void assemble(int threads, long sketchBytes) throws IOException{
+	ReadParser parser = ReadParser.of(System.in);
+	
+	//Code to sort input into a graph.
+	//A genome sample will obviously have multiple copies of the same
+	//section of RNA. Only keep one, counting its copies in copies[].
+	//Reads are found by the rolling hash of their bases, which can
+	//collide, so reads sharing a hash are chained and compared
+	LongIntMap distinct = new LongIntMap(1024);
+	int[] sameHash = new int[1024];
+	int K = 0;
+	int count = 0;
+	while(parser.next()){
+	    CharSequence read = parser.field(0);
+	    //Trimmed reads are shorter, so the read length is the longest
+	    K = Math.max(K,read.length());
+	    long hash = KmerRoller.hash(read,0,read.length());
+	    int copy = hash == Bases.INVALID ? -1 : distinct.get(hash);
+	    while(copy >= 0 && !reads.contentEquals(copy,read))
+		copy = sameHash[copy];
+	    if(copy >= 0){
+		copies[copy]++;
 		continue;
-	    for(int pre = suf+1; pre < reads.length; pre++){
-		if(reads[suf].equals(reads[pre])){
-			reads[pre] = "OFF";
-		    }
 	    }
+	    if(count == copies.length){
+		copies = Arrays.copyOf(copies,count*2);
+		sameHash = Arrays.copyOf(sameHash,count*2);
+	    }
+	    reads.add(read);
+	    copies[count] = 1;
+	    sameHash[count] = -1;
+	    if(hash != Bases.INVALID){
+		sameHash[count] = distinct.get(hash);
+		distinct.put(hash,count);
+	    }
+	    count++;
 	}
-		
-	//Write the graph as a giant string in the graph-format specified.
-	for(int suf = 0; suf < reads.length; suf++){
-	    if(reads[suf].equals("OFF"))
-		continue;
-	    boolean matchFound = false;
-	    graphAsString += suf + " ->";
-	    for(int pre = 0; pre < reads.length; pre++){
-		if(reads[pre].equals("OFF"))
-		    continue;
-		if(reads[suf].substring(1,K).equals(reads[pre].substring(0,K-1))){
-		    graphAsString += " " + pre;
+	parser.close();
+	//Even the longest read is too short to assemble, or there are none
+	if(count == 0 || K < MIN_LENGTH)
+	    return;
+	removed = new BitSet(count);
+	visited = new boolean[count];
+	edgesTo = new int[count];
+	edgesFrom = new int[count];
+	samePrefix = new int[count];
+	Arrays.fill(samePrefix,-1);
+
+	//Preprocess reads by removing those with low-appearance k-mers.
+	//This can be done by counting the appearances of each k-mer,
+	//And then looping through the reads and deleting those with low appearances.
+	//Both passes are split across the workers, and each read's k-mers
+	//count once per copy of it. A k-mer holding an N is never counted,
+	//so its read is removed too. Reads overlap by exactly K-1 bases, so
+	//reads trimmed shorter or left longer than K are removed up front.
+	//K is at least MIN_LENGTH, so so is every read left
+	for(int i = 0; i < count; i++)
+	    if(reads.length(i) != K)
+		removed.set(i);
+	ExecutorService workers = Executors.newFixedThreadPool(threads);
+	try{
+	    KmerCounter kmers = new KmerCounter(MERLEN,workers,threads,sketchBytes);
+	    kmers.count(reads,copies,count,removed);
+	    //Fix single-base errors first, so only reads that cannot be
+	    //fixed are dropped. A fixed read can become a copy of another,
+	    //which would be a second node with the same edges, so it is
+	    //merged into the first live read it now equals, or else chained
+	    //under its new hash for later fixed reads to find
+	    BitSet corrected = kmers.correct(reads,count,removed,SOLID);
+	    for(int i = corrected.nextSetBit(0); i >= 0; i = corrected.nextSetBit(i+1)){
+		String read = reads.toString(i);
+		long hash = KmerRoller.hash(read,0,read.length());
+		boolean chained = false;
+		int copy = distinct.get(hash);
+		while(copy >= 0 && (copy == i || removed.get(copy) || !reads.contentEquals(copy,read))){
+		    chained |= copy == i;
+		    copy = sameHash[copy];
+		}
+		if(copy >= 0){
+		    copies[copy] += copies[i];
+		    removed.set(i);
+		}
+		else if(!chained){
+		    sameHash[i] = distinct.get(hash);
+		    distinct.put(hash,i);
 		}
 	    }
-	    
-	    graphAsString += "\n";
+	    removed.or(kmers.rare(reads,count,removed,THRESHOLD));
+	}
+	finally{
+	    workers.shutdown();
 	}
-	scanner.close();
 
-	
-	//Populate edgesTo(prefix)[] edgesFrom(prefix)[]
-	//It is important to know how many reads point to and from
-	//nodes to find 1-1 nodes and run DeBrujin
-	for(int j = 0; j < reads.length; j++){
-	    if(reads[j].equals("OFF"))
+	//Index the live reads by the hash of their (K-1)-mer prefix. Reads
+	//sharing a hash are chained in increasing order through nextPrefix
+	LongIntMap prefixes = new LongIntMap(count);
+	int[] nextPrefix = new int[count];
+	long[] prefixOf = new long[count];
+	long[] suffixOf = new long[count];
+	KmerRoller overlap = new KmerRoller(K-1);
+	for(int i = count-1; i >= 0; i--){
+	    nextPrefix[i] = -1;
+	    if(removed.get(i))
 		continue;
-	    for(int k = 0; k < reads.length; k++){
-		if(reads[k].equals("OFF"))
-		    continue;
-		if(reads[k].substring(0,K-1).equals(reads[j].substring(0,K-1)))
-		    edgesFrom[k] += 1;
-		if(reads[k].substring(0,K-1).equals(reads[j].substring(1,K)))
-		    edgesTo[k] += 1;
-	    }
+	    overlap.reset();
+	    for(int j = 0; j < K-1; j++)
+		overlap.add(reads.charAt(i,j));
+	    prefixOf[i] = overlap.hash();
+	    overlap.add(reads.charAt(i,K-1));
+	    suffixOf[i] = overlap.hash();
+	    int head = prefixes.get(prefixOf[i]);
+	    if(head != LongIntMap.MISSING)
+		nextPrefix[i] = head;
+	    prefixes.put(prefixOf[i],i);
 	}
 
-	
-	scanner = new Scanner(graphAsString);
-	
-	//Code to parse out graph from graph-formatted input
-	while(scanner.hasNextLine()){
-	    String[] next = scanner.nextLine().split("(,| )");
-	    graph.add(next);
+	//Build the graph of reads. A read points to every read whose prefix
+	//matches its suffix, found through the index. The hash can collide,
+	//so the bases are compared too.
+	//It is important to know how many reads point to and from
+	//nodes to find 1-1 nodes and run DeBrujin, so edgesTo(prefix)[] and
+	//edgesFrom(prefix)[] are populated in the same pass
+	graph = new OverlapGraph(count);
+	for(int suf = removed.nextClearBit(0); suf < count; suf = removed.nextClearBit(suf+1)){
+	    for(int pre = prefixes.get(suffixOf[suf]); pre >= 0; pre = nextPrefix[pre]){
+		if(reads.regionMatches(suf,1,pre,0,K-1)){
+		    graph.addEdge(suf,pre);
+		    edgesTo[pre] += 1;
+		}
+	    }
+	    //Every read sharing this one's prefix, itself included, follows
+	    //the same (K-1)-mer. The first of them to come up links them all
+	    //into a ring, in increasing order
+	    int last = samePrefix[suf] < 0 ? suf : -1;
+	    for(int pre = prefixes.get(prefixOf[suf]); pre >= 0; pre = nextPrefix[pre]){
+		if(reads.regionMatches(suf,0,pre,0,K-1)){
+		    edgesFrom[suf] += 1;
+		    if(last >= 0 && pre != suf){
+			samePrefix[last] = pre;
+			last = pre;
+		    }
+		}
+	    }
+	    if(last >= 0)
+		samePrefix[last] = suf;
 	}
-	Collections.sort(graph, new SortFirstIndex());
-       	scanner.close();
+	graph.finish();
 
+	//Sequencing errors the correction missed still leave short dead
+	//ends (tips) and short paths running beside the true one (bubbles),
+	//each of which would break the walks below. Prune them first
+	simplify(K);
 
 	//DeBrujin code
 	//Analysis done according to online pseudocode,
 	//Traverses forward from non 1-1 nodes until another
-	//non 1-1 node is found
-	ArrayList<String> paths = new ArrayList<String>();
-	for(String[] node : graph){
-	    if(edgesFrom[Integer.parseInt(node[0])] != 1 ||
-	       edgesTo[Integer.parseInt(node[0])] != 1){
-		visited[Integer.parseInt(node[0])] = true;
-		if(node.length == 2){		    
-		    paths.add(node[0]);
-		    continue;
-		}    
-		    if(edgesFrom[Integer.parseInt(node[0])] > 0){
-		    for(int i = 2; i < node.length; i++){
-			String newNode = node[i];
-			String newPath = node[0];
-			while(edgesFrom[Integer.parseInt(newNode)] == 1 &&
-			      edgesTo[Integer.parseInt(newNode)] == 1){
-			    visited[Integer.parseInt(newNode)] = true;
-			    newPath+= " -> " + newNode;
-			    if(getNode(newNode).length != 2)
-				newNode = getNode(newNode)[2];
-			    else{ //This secondary case is important, it catches single-node paths
-				newNode = reads[Integer.parseInt(newNode)].substring(K-1,K);
-				break;
-			    }
-			
-			}
-			try{
-			    visited[Integer.parseInt(newNode)] = true;
-			}
-			catch(NumberFormatException e){}
-			newPath += " -> " + newNode;
-			paths.add(newPath);
-		    }
-		    
-		}
-	    }
-	}	
+	//non 1-1 node is found. A 1-1 node has one edge entering it, so no
+	//two walks share one and the walks are split across a ForkJoinPool,
+	//their paths joined back in order of the nodes they start from
+	int[] branches = new int[count];
+	int branchCount = 0;
+	for(int node = removed.nextClearBit(0); node < count; node = removed.nextClearBit(node+1))
+	    if(edgesFrom[node] != 1 || edgesTo[node] != 1)
+		branches[branchCount++] = node;
+	ForkJoinPool pool = new ForkJoinPool(threads);
+	ArrayList<int[]> paths;
+	try{
+	    paths = pool.invoke(new Unitigs(branches,0,branchCount,K));
+	}
+	finally{
+	    pool.shutdown();
+	}
 	ArrayList<String> output = new ArrayList<String>();
 	ArrayList<String> used = new ArrayList<String>();
 	int previous = 0; //assume starting at reads[0]
 
 	//Some isolated cycles are not findable by traversing from the
-	//graph's start, these are added separately
+	//graph's start, these are added separately. Which node a leftover
+	//walk starts from depends on the ones before it, so they stay serial
 	paths = addIsolated(paths);
 
 	//All this simply formats the output back to FASTA
-	String newOut = "";
-	for(String path : paths){
-	    String[] out = path.split(" ");
-	    if(!(previous == Integer.parseInt(out[0])))
+	StringBuilder newOut = new StringBuilder();
+	for(int[] path : paths){
+	    if(previous != path[0])
 		used = new ArrayList<String>();
-	    newOut+=(reads[Integer.parseInt(out[0])].substring(0,K-1));
-	    int i = 2;
-	    for(; i < out.length;i+=2){
-		try{
-		newOut+=(reads[Integer.parseInt(out[i])].substring(K-2,K-1));
-		}
-		catch(NumberFormatException e){
-		    newOut+=out[i];
-		}
-		}
-	    if(out.length == 1)
-		newOut = (reads[Integer.parseInt(out[0])]);
-	    if(!used.contains(newOut))
-		output.add(newOut);
-	    previous = Integer.parseInt(out[0]);
-	    used.add(newOut);
-	    newOut="";
+	    newOut.append(reads.substring(path[0],0,K-1));
+	    for(int i = 1; i < path.length; i++){
+		if(path[i] >= 0)
+		    newOut.append(reads.charAt(path[i],K-2));
+		else
+		    newOut.append((char)~path[i]);
+	    }
+	    String contig = path.length == 1 ? reads.toString(path[0]) : newOut.toString();
+	    if(!used.contains(contig))
+		output.add(contig);
+	    previous = path[0];
+	    used.add(contig);
+	    newOut.setLength(0);
 	}
 
 	//Add in isolated nodes that did not have the original
 	//path detection run for them, as they
 	//have no edges leaving them
-	for(int i = 0; i < edgesFrom.length;i++){
-	    if(edgesFrom[i] == 0 && !reads[i].equals("OFF"))
-		output.add(reads[i]);
+	for(int i = removed.nextClearBit(0); i < count; i = removed.nextClearBit(i+1)){
+	    if(edgesFrom[i] == 0)
+		output.add(reads.toString(i));
 	}
 	//Finally, print all nodes. The chromosome name and word
 	//"ASSEMBLY" are added in post-processing
@@ -231,6 +334,242 @@ public class Contig{
     }
 
 
+    /**
+     * Walks forward from a range of non 1-1 nodes, splitting the range in
+     * half until it is small. Each walk marks the nodes it passes visited;
+     * a path that runs into a node with no edges leaving it ends with
+     * that read's last base, stored as ~base.
+     * <p>
+     * visited is written without synchronization rather than claimed
+     * atomically. No walk reads it: a walk's course depends only on the
+     * graph and the degrees, which nothing changes while the walks run,
+     * so there is nothing to claim. Different walks only ever store true,
+     * to separate elements or the same one, and Java arrays have no word
+     * tearing, so no store can undo another. addIsolated reads visited
+     * only after pool.invoke has returned, which happens-after every
+     * task's writes.
+     */
+    private static final class Unitigs extends RecursiveTask<ArrayList<int[]>>{
+	private static final long serialVersionUID = 1L;
+	private static final int GRAIN = 256;
+	private final int[] branches;
+	private final int from, to, K;
+
+	Unitigs(int[] branches, int from, int to, int K){
+	    this.branches = branches;
+	    this.from = from;
+	    this.to = to;
+	    this.K = K;
+	}
+
+	protected ArrayList<int[]> compute(){
+	    if(to-from > GRAIN){
+		Unitigs left = new Unitigs(branches,from,(from+to) >>> 1,K);
+		left.fork();
+		ArrayList<int[]> right = new Unitigs(branches,(from+to) >>> 1,to,K).compute();
+		ArrayList<int[]> paths = left.join();
+		paths.addAll(right);
+		return paths;
+	    }
+	    ArrayList<int[]> paths = new ArrayList<int[]>();
+	    int[] walk = new int[16];
+	    for(int b = from; b < to; b++){
+		int node = branches[b];
+		visited[node] = true;
+		if(graph.outDegree(node) == 0){
+		    paths.add(new int[]{node});
+		    continue;
+		}
+		if(edgesFrom[node] > 0){
+		    for(int e = graph.start(node); e < graph.end(node); e++){
+			int newNode = graph.target(e);
+			int length = 0;
+			walk[length++] = node;
+			while(newNode >= 0 && edgesFrom[newNode] == 1 && edgesTo[newNode] == 1){
+			    visited[newNode] = true;
+			    walk = grow(walk,length);
+			    walk[length++] = newNode;
+			    if(graph.outDegree(newNode) != 0)
+				newNode = graph.target(graph.start(newNode));
+			    else //This secondary case is important, it catches single-node paths
+				newNode = ~reads.charAt(newNode,K-1);
+			}
+			//Walks can end on the same node, which only ever marks it
+			//visited; see the note on the class for why that is safe
+			if(newNode >= 0)
+			    visited[newNode] = true;
+			walk = grow(walk,length);
+			walk[length++] = newNode;
+			paths.add(Arrays.copyOf(walk,length));
+		    }
+		}
+	    }
+	    return paths;
+	}
+    }
+
+    /**
+     * Clips tips and pops bubbles until none are left. A read with more
+     * than one edge leaving it has each way on followed through reads
+     * with one edge in and out, for at most K reads. A way on that
+     * stops at a read with no edges leaving it is a tip; one that runs
+     * into a read with several edges entering it is a bubble branch,
+     * and the other branches into that read are its rivals. The way on
+     * with the most copies of its reads is kept: a tip other than it is
+     * clipped if its reads average under 1/TIP_RATIO of the kept way's
+     * copies, and a bubble branch is popped unless it outweighs its
+     * rivals. Reads with more than one edge entering them are done the
+     * same way backwards, which clips tips at the start of a path.
+     * <p>
+     * Removing a read updates the graph and edgesFrom and edgesTo in
+     * place, so the walks see the simplified graph with nothing rebuilt.
+     *
+     * @param K the length of the reads
+     */
+    private static void simplify(int K){
+	predecessors = graph.reverse();
+	int[] walk = new int[K+1];
+	for(boolean changed = true; changed; ){
+	    changed = false;
+	    for(int node = removed.nextClearBit(0); node < graph.nodes(); node = removed.nextClearBit(node+1)){
+		if(graph.outDegree(node) > 1)
+		    changed |= prune(node,true,K,walk);
+		if(!removed.get(node) && graph.inDegree(node) > 1)
+		    changed |= prune(node,false,K,walk);
+	    }
+	}
+	predecessors = null;
+    }
+
+    /**
+     * Prunes the tips and bubble branches leaving (or, backwards,
+     * entering) one read.
+     *
+     * @return true if any read was removed
+     */
+    private static boolean prune(int branch, boolean forward, int K, int[] walk){
+	int[] next = neighbours(branch,forward);
+	int[][] ways = new int[next.length][];
+	long[] weight = new long[next.length];
+	int[] length = new int[next.length];
+	//The read a bubble branch runs into, -1 for a tip, or -2 for
+	//anything else
+	int[] merge = new int[next.length];
+	int best = 0;
+	for(int i = 0; i < next.length; i++){
+	    merge[i] = -2;
+	    if(degree(next[i],!forward) != 1){
+		weight[i] = copies[next[i]];
+		length[i] = 1;
+	    }
+	    else{
+		length[i] = walk(next[i],forward,walk,K+1);
+		ways[i] = Arrays.copyOf(walk,length[i]);
+		for(int read : ways[i])
+		    weight[i] += copies[read];
+		int end = walk[length[i]-1];
+		if(length[i] <= K && degree(end,forward) == 0)
+		    merge[i] = -1;
+		else if(length[i] <= K && degree(end,forward) == 1)
+		    merge[i] = step(end,forward);
+	    }
+	    if(weight[i] > weight[best])
+		best = i;
+	}
+	boolean changed = false;
+	for(int i = 0; i < next.length; i++){
+	    if(i == best || merge[i] == -2)
+		continue;
+	    //A tip is weighed by its reads' average copies, as the kept way
+	    //can run on for more reads than the tip has
+	    boolean outweighed = merge[i] == -1 && weight[i]*TIP_RATIO*length[best] < weight[best]*length[i];
+	    for(int j = 0; j < next.length && merge[i] >= 0 && !outweighed; j++)
+		outweighed = j != i && merge[j] == merge[i] && (weight[j] > weight[i] || weight[j] == weight[i] && j < i);
+	    if(!outweighed)
+		continue;
+	    for(int read : ways[i])
+		removeRead(read);
+	    changed = true;
+	}
+	return changed;
+    }
+
+    //Follows reads from first, which has one edge into it, for as long as
+    //each read has one edge on and the read after it one edge into it,
+    //for at most limit reads. Returns the number of reads in walk
+    private static int walk(int first, boolean forward, int[] walk, int limit){
+	int length = 0;
+	for(int node = first; ; ){
+	    walk[length++] = node;
+	    if(length == limit || degree(node,forward) != 1)
+		return length;
+	    int next = step(node,forward);
+	    if(degree(next,!forward) != 1)
+		return length;
+	    node = next;
+	}
+    }
+
+    //The number of edges leaving a read, or entering it backwards
+    private static int degree(int node, boolean forward){
+	return forward ? graph.outDegree(node) : graph.inDegree(node);
+    }
+
+    //The read after one with a single edge on, or before it backwards
+    private static int step(int node, boolean forward){
+	return forward ? graph.target(graph.start(node)) : firstBefore(node);
+    }
+
+    //The first read still entering a read, or -1 if there is none
+    private static int firstBefore(int node){
+	for(int e = predecessors.start(node); e < predecessors.end(node); e++)
+	    if(!removed.get(predecessors.target(e)))
+		return predecessors.target(e);
+	return -1;
+    }
+
+    //The reads a read has edges to, or from backwards
+    private static int[] neighbours(int node, boolean forward){
+	if(forward){
+	    int[] to = new int[graph.outDegree(node)];
+	    for(int e = graph.start(node); e < graph.end(node); e++)
+		to[e-graph.start(node)] = graph.target(e);
+	    return to;
+	}
+	int[] from = new int[graph.inDegree(node)];
+	for(int e = predecessors.start(node), n = 0; n < from.length; e++)
+	    if(!removed.get(predecessors.target(e)))
+		from[n++] = predecessors.target(e);
+	return from;
+    }
+
+    //Drops a read and its edges from the graph, keeping the degrees
+    //current: edgesTo for the reads after it, and edgesFrom for the
+    //reads sharing its prefix, found through samePrefix, as the read may
+    //have no read before it left to find them from
+    private static void removeRead(int read){
+	removed.set(read);
+	while(graph.outDegree(read) > 0){
+	    edgesTo[graph.target(graph.start(read))]--;
+	    graph.removeEdge(read,graph.start(read));
+	}
+	for(int e = predecessors.start(read); e < predecessors.end(read); e++){
+	    int from = predecessors.target(e);
+	    if(removed.get(from))
+		continue;
+	    for(int f = graph.start(from); f < graph.end(from); f++){
+		if(graph.target(f) == read){
+		    graph.removeEdge(from,f);
+		    break;
+		}
+	    }
+	    edgesTo[read]--;
+	}
+	for(int same = samePrefix[read]; same != read; same = samePrefix[same])
+	    if(!removed.get(same))
+		edgesFrom[same]--;
+    }
+
     /**
      * Finds self-contained cycles, where every node has
      * one edge entering it and leaving it.
@@ -238,37 +577,31 @@ public class Contig{
      * @param paths A mutable list of the isolated paths found
      * @return      the mutated version of paths
      */
-    public static ArrayList<String> addIsolated(ArrayList<String> paths){
+    public static ArrayList<int[]> addIsolated(ArrayList<int[]> paths){
 	//Find an unvisited node in graphs
-	for(String[] node : graph){
-	    if(!visited[Integer.parseInt(node[0])]){
-		visited[Integer.parseInt(node[0])] = true;
-		String newNode = node[2];
-		String newPath = node[0] + " -> " + newNode;
-		//Travel forward until an already encountered node is found
-		while(!visited[Integer.parseInt(newNode)]){
-		    visited[Integer.parseInt(newNode)] = true;
-		    newPath+= " -> " + getNode(newNode)[2];
-		    newNode = getNode(newNode)[2];
-		}
-		paths.add(newPath);
+	int[] walk = new int[16];
+	for(int node = removed.nextClearBit(0); node < graph.nodes(); node = removed.nextClearBit(node+1)){
+	    if(visited[node])
+		continue;
+	    visited[node] = true;
+	    int length = 0;
+	    walk[length++] = node;
+	    //Travel forward until an already encountered node is found
+	    for(int newNode = node; graph.outDegree(newNode) != 0; ){
+		newNode = graph.target(graph.start(newNode));
+		walk = grow(walk,length);
+		walk[length++] = newNode;
+		if(visited[newNode])
+		    break;
+		visited[newNode] = true;
 	    }
+	    paths.add(Arrays.copyOf(walk,length));
 	}
 	return paths;
     }
 
-    /**
-     * Retrieves the node with a given index. If no such node exists,
-     * returns a burner string.
-     *
-     * @param num the index within the graph to access
-     * @return    the node value as a string array
-     */
-    public static String[] getNode(String num){
-	for(String[] node : graph){
-	    if(num.equals(node[0]))
-		return node;
-	}
-	return new String[]{"1","2","3","4","5"};
+    //Makes room in a path for one more node
+    private static int[] grow(int[] walk, int length){
+	return length < walk.length ? walk : Arrays.copyOf(walk,length*2);
     }
 }
@@ -0,0 +1,61 @@
+/**
+ * Streams the bases of a FASTA file into a PackedSequence.
+ * <p>
+ * The file is memory-mapped and scanned once, byte by byte: header lines
+ * (starting with '&gt;') and line breaks are skipped and every other byte
+ * is packed straight into the sequence. No line Strings are built, so
+ * loading is linear in the file size instead of the quadratic
+ * genome += line it replaces.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+final class FastaLoader{
+    //Files larger than this are mapped in several windows
+    private static final long WINDOW = 1L << 30;
+
+    private FastaLoader(){}
+
+    /**
+     * Appends every base of a FASTA file to a sequence.
+     *
+     * @param file   the FASTA file to read
+     * @param genome the sequence the bases are appended to
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public static void load(File file, PackedSequence genome) throws IOException{
+	try(RandomAccessFile raf = new RandomAccessFile(file,"r");
+	    FileChannel channel = raf.getChannel()){
+	    long size = channel.size();
+	    //The file size bounds the number of bases it holds
+	    genome.ensureCapacity((int)Math.min(size+genome.length(),Integer.MAX_VALUE-31));
+	    boolean header = false;
+	    boolean lineStart = true;
+	    for(long offset = 0; offset < size; offset += WINDOW){
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,offset,
+						      Math.min(WINDOW,size-offset));
+		while(buffer.hasRemaining()){
+		    byte b = buffer.get();
+		    if(b == '\n'){
+			header = false;
+			lineStart = true;
+			continue;
+		    }
+		    if(lineStart && b == '>')
+			header = true;
+		    lineStart = false;
+		    if(header || b == '\r' || b == ' ' || b == '\t')
+			continue;
+		    genome.append((char)(b & 0xff));
+		}
+	    }
+	}
+    }
+}
@@ -0,0 +1,380 @@
+/**
+ * Counts the k-mers of a set of reads on a pool of worker threads, for
+ * filtering out reads that hold rare (likely erroneous) k-mers.
+ * <p>
+ * The counts are split into stripes, where a k-mer's stripe is picked by
+ * the high bits of its hash, one stripe per worker. Reads are counted in
+ * rounds of COUNT_BATCH. In each round the reads are split into one
+ * range per worker, which rolls their k-mers and appends each to a
+ * buffer of its own for the k-mer's stripe; then each worker drains
+ * every buffer for its stripe into the stripe's table. Every read is
+ * rolled once, nothing is shared or locked while counting, and each
+ * k-mer is held in one table only: the memory needed does not grow with
+ * the number of threads. K-mers are counted by their canonical code, so
+ * a k-mer and its reverse complement count as one, reads from either
+ * strand adding to it. A lookup goes straight to its k-mer's stripe.
+ * <p>
+ * For inputs too large to count exactly, a count-min sketch of fixed
+ * size can be used instead: DEPTH rows of counters, where each k-mer
+ * adds to one counter per row and reads back as the smallest of them.
+ * The rows are shared by the workers and updated with atomic adds.
+ * Collisions can only raise a count, so a read is never dropped because
+ * of the sketch, though a few reads with rare k-mers may be kept.
+ * <p>
+ * The counts can also correct reads: a single wrong base makes every
+ * k-mer over it rare, so a run of rare k-mers is fixed by the one base
+ * change that makes all of the k-mers over it solid, if there is exactly
+ * one. The k-mers' codes are patched in place to try each change, so a
+ * try is a lookup per k-mer and nothing is rolled again.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+final class KmerCounter{
+    private static final int DEPTH = 4;
+    //Reads corrected per batch, and the most bases changed in one read
+    private static final int BATCH = 1 << 16;
+    private static final int MAX_FIXES = 4;
+    //Reads counted per round, which bounds the k-mers buffered at once
+    private static final int COUNT_BATCH = 1 << 12;
+
+    private final int k;
+    private final ExecutorService workers;
+    private final int threads;
+
+    //Exact counts, by stripe
+    private final int stripes;
+    private LongIntMap[] counts;
+
+    //The count-min sketch, DEPTH rows of width counters, or null
+    private final AtomicIntegerArray sketch;
+    private final int width;
+
+    /**
+     * @param k           the k-mer length, at most Bases.MAX_K
+     * @param workers     the pool to count on
+     * @param threads     the number of threads in the pool
+     * @param sketchBytes the memory to give a count-min sketch, or 0 to
+     *                    count exactly
+     */
+    public KmerCounter(int k, ExecutorService workers, int threads, long sketchBytes){
+	this.k = k;
+	this.workers = workers;
+	this.threads = Math.max(1,threads);
+	this.stripes = this.threads;
+	if(sketchBytes > 0){
+	    long cells = Math.min(sketchBytes/(4*DEPTH),1 << 28);
+	    width = Integer.highestOneBit((int)Math.max(1024,cells));
+	    sketch = new AtomicIntegerArray(DEPTH*width);
+	}
+	else{
+	    width = 0;
+	    sketch = null;
+	}
+    }
+
+    /**
+     * Counts the k-mers of reads 0 to n-1, each once per copy of
+     * its read. K-mers holding an N are not counted.
+     *
+     * @param reads  the reads
+     * @param copies how many times each read was seen
+     * @param n      the number of reads
+     * @param skip   reads to leave out
+     */
+    public void count(ReadStore reads, int[] copies, int n, BitSet skip){
+	ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+	if(sketch != null){
+	    //The sketch is shared, so the reads are split instead
+	    for(int t = 0; t < threads; t++){
+		int from = (int)((long)n*t/threads), to = (int)((long)n*(t+1)/threads);
+		tasks.add(() -> {
+			sketchRange(reads,copies,from,to,skip);
+			return null;
+		    });
+	    }
+	    run(tasks);
+	    return;
+	}
+	counts = new LongIntMap[stripes];
+	for(int s = 0; s < stripes; s++)
+	    counts[s] = new LongIntMap(1024);
+	//Each worker's buffered k-mers and their copies, by stripe. Buffer
+	//[t][s] is only filled by worker t and drained by worker s
+	long[][][] kmers = new long[threads][stripes][256];
+	int[][][] weights = new int[threads][stripes][256];
+	int[][] sizes = new int[threads][stripes];
+	for(int batch = 0; batch < n; batch += COUNT_BATCH){
+	    int size = Math.min(COUNT_BATCH,n-batch);
+	    tasks.clear();
+	    for(int t = 0; t < threads; t++){
+		int task = t;
+		int from = batch+(int)((long)size*t/threads), to = batch+(int)((long)size*(t+1)/threads);
+		tasks.add(() -> {
+			route(reads,copies,from,to,skip,kmers[task],weights[task],sizes[task]);
+			return null;
+		    });
+	    }
+	    run(tasks);
+	    tasks.clear();
+	    for(int s = 0; s < stripes; s++){
+		int stripe = s;
+		tasks.add(() -> {
+			for(int t = 0; t < threads; t++){
+			    for(int i = 0; i < sizes[t][stripe]; i++)
+				counts[stripe].increment(kmers[t][stripe][i],weights[t][stripe][i]);
+			    sizes[t][stripe] = 0;
+			}
+			return null;
+		    });
+	    }
+	    run(tasks);
+	}
+    }
+
+    /**
+     * @param kmer a k-mer's canonical code
+     * @return     the number of times it or its reverse complement was
+     *             counted, 0 if never
+     */
+    public int get(long kmer){
+	if(kmer < 0)
+	    return 0;
+	if(sketch == null)
+	    return Math.max(0,counts[stripe(kmer)].get(kmer));
+	int min = Integer.MAX_VALUE;
+	long h = Bases.mix(kmer);
+	long step = Bases.mix(h) | 1;
+	for(int row = 0; row < DEPTH; row++, h += step)
+	    min = Math.min(min,sketch.get(row*width+((int)(h >>> 32) & (width-1))));
+	return min;
+    }
+
+    /**
+     * Finds the reads that hold a k-mer counted fewer than threshold
+     * times, or a k-mer with an N, checking ranges of reads in parallel.
+     *
+     * @param reads     the reads that were counted
+     * @param n         the number of reads
+     * @param skip      reads to leave out
+     * @param threshold the smallest count a k-mer needs
+     * @return          the reads to drop
+     */
+    public BitSet rare(ReadStore reads, int n, BitSet skip, int threshold){
+	ArrayList<Callable<BitSet>> tasks = new ArrayList<Callable<BitSet>>();
+	for(int t = 0; t < threads; t++){
+	    int from = (int)((long)n*t/threads), to = (int)((long)n*(t+1)/threads);
+	    tasks.add(() -> {
+		    BitSet found = new BitSet();
+		    KmerRoller roller = new KmerRoller(k);
+		    for(int i = skip.nextClearBit(from); i < to; i = skip.nextClearBit(i+1)){
+			roller.reset();
+			int solid = 0;
+			for(int j = 0; j < reads.length(i); j++)
+			    if(roller.add(reads.charAt(i,j)) && get(roller.canonical()) >= threshold)
+				solid++;
+			if(solid <= reads.length(i)-k)
+			    found.set(i);
+		    }
+		    return found;
+		});
+	}
+	BitSet rare = new BitSet(n);
+	for(BitSet found : run(tasks))
+	    rare.or(found);
+	return rare;
+    }
+
+    /**
+     * Corrects the reads' single-base errors against the counts, so reads
+     * that would be dropped for a rare k-mer can be kept. Reads are taken
+     * in batches of BATCH, each split across the workers, which only find
+     * the fixes; they are written back between batches, on this thread,
+     * as reads share words of the store. A read is only changed if every
+     * k-mer in it ends up counted at least threshold times, and reads
+     * with an N are left alone.
+     *
+     * @param reads     the reads that were counted
+     * @param n         the number of reads
+     * @param skip      reads to leave out
+     * @param threshold the smallest count a k-mer needs
+     * @return          the reads that were changed
+     */
+    public BitSet correct(ReadStore reads, int n, BitSet skip, int threshold){
+	BitSet corrected = new BitSet(n);
+	ArrayList<Callable<int[]>> tasks = new ArrayList<Callable<int[]>>();
+	for(int batch = 0; batch < n; batch += BATCH){
+	    int size = Math.min(BATCH,n-batch);
+	    tasks.clear();
+	    for(int t = 0; t < threads; t++){
+		int from = batch+(int)((long)size*t/threads), to = batch+(int)((long)size*(t+1)/threads);
+		tasks.add(() -> fixRange(reads,from,to,skip,threshold));
+	    }
+	    for(int[] fixes : run(tasks)){
+		for(int f = 1; f < fixes[0]; f += 3){
+		    reads.set(fixes[f],fixes[f+1],Bases.base(fixes[f+2]));
+		    corrected.set(fixes[f]);
+		}
+	    }
+	}
+	return corrected;
+    }
+
+    //Finds the fixes for reads[from, to), as (read, position, code)
+    //triples after the array's used length
+    private int[] fixRange(ReadStore reads, int from, int to, BitSet skip, int threshold){
+	int[] fixes = new int[64];
+	int found = 1;
+	int[] codes = new int[0];
+	long[] forward = new long[0];
+	long[] reverse = new long[0];
+	int[] changes = new int[MAX_FIXES];
+	KmerRoller roller = new KmerRoller(k);
+	next:
+	for(int i = skip.nextClearBit(from); i < to; i = skip.nextClearBit(i+1)){
+	    int len = reads.length(i);
+	    if(len < k)
+		continue;
+	    if(codes.length < len){
+		codes = new int[len];
+		forward = new long[len];
+		reverse = new long[len];
+	    }
+	    roller.reset();
+	    for(int j = 0; j < len; j++){
+		codes[j] = Bases.code(reads.charAt(i,j));
+		if(codes[j] < 0)
+		    continue next;
+		if(roller.add(reads.charAt(i,j))){
+		    forward[j-k+1] = roller.kmer();
+		    reverse[j-k+1] = roller.reverse();
+		}
+	    }
+	    int fixCount = 0;
+	    for(int s = 0; s <= len-k; s++){
+		if(get(Math.min(forward[s],reverse[s])) >= threshold)
+		    continue;
+		if(fixCount == MAX_FIXES)
+		    continue next;
+		changes[fixCount] = fix(codes,forward,reverse,len,s,threshold);
+		if(changes[fixCount++] < 0)
+		    continue next;
+	    }
+	    if(found+3*fixCount > fixes.length)
+		fixes = Arrays.copyOf(fixes,Math.max(fixes.length*2,found+3*fixCount));
+	    for(int f = 0; f < fixCount; f++){
+		fixes[found++] = i;
+		fixes[found++] = changes[f] >>> 2;
+		fixes[found++] = changes[f] & 3;
+	    }
+	}
+	fixes[0] = found;
+	return fixes;
+    }
+
+    //Fixes the run of rare k-mers starting at first, whose error must lie
+    //in every one of them. Returns position*4+code of the only base
+    //change that makes every k-mer over it solid, after patching codes,
+    //forward and reverse, or -1 if no change or more than one does
+    private int fix(int[] codes, long[] forward, long[] reverse, int len, int first, int threshold){
+	int last = first;
+	while(last < len-k && get(Math.min(forward[last+1],reverse[last+1])) < threshold)
+	    last++;
+	int change = -1;
+	for(int p = last; p < Math.min(len,first+k); p++){
+	    for(int c = 0; c < 4; c++){
+		if(c == codes[p] || !solid(forward,reverse,len,p,codes[p]^c,threshold))
+		    continue;
+		if(change >= 0)
+		    return -1;
+		change = p << 2 | c;
+	    }
+	}
+	if(change < 0)
+	    return -1;
+	int p = change >>> 2;
+	long flip = codes[p]^(change & 3);
+	for(int s = Math.max(0,p-k+1); s <= Math.min(p,len-k); s++){
+	    forward[s] ^= flip << 2*(s+k-1-p);
+	    reverse[s] ^= flip << 2*(p-s);
+	}
+	codes[p] = change & 3;
+	return change;
+    }
+
+    //True if every k-mer over position p is solid once p's code is XORed
+    //with flip. Complementing a code is XORing it with 3, so the reverse
+    //complement's code changes by the same flip
+    private boolean solid(long[] forward, long[] reverse, int len, int p, long flip, int threshold){
+	for(int s = Math.max(0,p-k+1); s <= Math.min(p,len-k); s++)
+	    if(get(Math.min(forward[s] ^ flip << 2*(s+k-1-p),reverse[s] ^ flip << 2*(p-s))) < threshold)
+		return false;
+	return true;
+    }
+
+    //Appends the k-mers of reads[from, to) to the buffers of their
+    //stripes, each with its read's copies
+    private void route(ReadStore reads, int[] copies, int from, int to, BitSet skip,
+		       long[][] kmers, int[][] weights, int[] sizes){
+	KmerRoller roller = new KmerRoller(k);
+	for(int i = skip.nextClearBit(from); i < to; i = skip.nextClearBit(i+1)){
+	    roller.reset();
+	    for(int j = 0; j < reads.length(i); j++){
+		if(!roller.add(reads.charAt(i,j)))
+		    continue;
+		long kmer = roller.canonical();
+		int s = stripe(kmer);
+		if(sizes[s] == kmers[s].length){
+		    kmers[s] = Arrays.copyOf(kmers[s],sizes[s]*2);
+		    weights[s] = Arrays.copyOf(weights[s],sizes[s]*2);
+		}
+		kmers[s][sizes[s]] = kmer;
+		weights[s][sizes[s]++] = copies[i];
+	    }
+	}
+    }
+
+    //Counts the k-mers of reads[from, to) into the sketch
+    private void sketchRange(ReadStore reads, int[] copies, int from, int to, BitSet skip){
+	KmerRoller roller = new KmerRoller(k);
+	for(int i = skip.nextClearBit(from); i < to; i = skip.nextClearBit(i+1)){
+	    roller.reset();
+	    for(int j = 0; j < reads.length(i); j++){
+		if(!roller.add(reads.charAt(i,j)))
+		    continue;
+		long h = Bases.mix(roller.canonical());
+		long step = Bases.mix(h) | 1;
+		for(int row = 0; row < DEPTH; row++, h += step)
+		    sketch.addAndGet(row*width+((int)(h >>> 32) & (width-1)),copies[i]);
+	    }
+	}
+    }
+
+    //Scales the hash's high bits to [0, stripes)
+    private int stripe(long kmer){
+	return (int)(((Bases.mix(kmer) >>> 32)*stripes) >>> 32);
+    }
+
+    //Runs tasks on the workers and waits for all of their results
+    private <T> ArrayList<T> run(ArrayList<Callable<T>> tasks){
+	try{
+	    ArrayList<T> results = new ArrayList<T>();
+	    for(Future<T> done : workers.invokeAll(tasks))
+		results.add(done.get());
+	    return results;
+	}
+	catch(InterruptedException | ExecutionException e){
+	    throw new IllegalStateException("K-mer counting failed",e);
+	}
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Steps a window of k bases along a sequence one base at a time, keeping
+ * the window's 2-bit code and an ntHash-style rolling hash up to date in
+ * O(1) per step, without allocating.
+ * <p>
+ * The code is the window in the format of Bases.encode, and only exists
+ * for k up to Bases.MAX_K. The code of its reverse complement (the
+ * other strand, read the other way) is rolled alongside, so the
+ * canonical k-mer, the smaller of the two, costs nothing extra: a k-mer
+ * and its reverse complement share one canonical code, and count or
+ * index as one key. The hash works for any k: each base has a
+ * random 64-bit seed, and the window hashes to the XOR of its bases'
+ * seeds, each rotated by its distance from the window's end, so a step
+ * rotates the hash once, XORs the new base in and XORs the base leaving
+ * the window out.
+ * <p>
+ * An N (any non-ACGT base) restarts the window, so every window reported
+ * as full holds k real bases. A sequence split over several lines or
+ * buffers is rolled by feeding its pieces one after another without a
+ * reset.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ */
+
+final class KmerRoller{
+    //ntHash seeds for A, C, G and T
+    private static final long[] SEEDS = {0x3c8bfbb395c60474L, 0x3193c18562a02b4cL,
+					 0x20323ed082572324L, 0x295549f54be24456L};
+
+    private final int k;
+    private final long mask;
+    //The window's bases, as a ring, for removing them from the hash
+    private final byte[] window;
+    private int valid;
+    private long kmer;
+    private long reverse;
+    private long hash;
+
+    /**
+     * @param k the window length
+     */
+    public KmerRoller(int k){
+	this.k = k;
+	this.mask = k >= 32 ? -1L : (1L << 2*k)-1;
+	this.window = new byte[k];
+    }
+
+    /**
+     * Empties the window, to start a new sequence.
+     */
+    public void reset(){
+	valid = 0;
+	kmer = 0;
+	reverse = 0;
+	hash = 0;
+    }
+
+    /**
+     * Moves the window one base along.
+     *
+     * @param c the next base, as a character
+     * @return  true if the window now holds k bases
+     */
+    public boolean add(int c){
+	int code = Bases.code(c);
+	if(code < 0){
+	    reset();
+	    return false;
+	}
+	int slot = valid % k;
+	hash = Long.rotateLeft(hash,1) ^ SEEDS[code];
+	if(valid >= k)
+	    hash ^= Long.rotateLeft(SEEDS[window[slot]],k);
+	window[slot] = (byte)code;
+	kmer = (kmer << 2 | code) & mask;
+	reverse = reverse >>> 2 | (long)(3-code) << 2*(k-1);
+	//Keep valid bounded, but past k, so the ring slot keeps cycling
+	valid = valid+1 == 2*k ? k : valid+1;
+	return valid >= k;
+    }
+
+    /**
+     * @return the window length
+     */
+    public int k(){
+	return k;
+    }
+
+    /**
+     * @return true if the window holds k bases
+     */
+    public boolean full(){
+	return valid >= k;
+    }
+
+    /**
+     * @return the window's code, valid while full and k is at most Bases.MAX_K
+     */
+    public long kmer(){
+	return kmer;
+    }
+
+    /**
+     * @return the code of the window's reverse complement, valid while
+     *         kmer() is
+     */
+    public long reverse(){
+	return reverse;
+    }
+
+    /**
+     * @return the smaller of the window's code and its reverse
+     *         complement's, valid while kmer() is
+     */
+    public long canonical(){
+	return Math.min(kmer,reverse);
+    }
+
+    /**
+     * @return true if canonical() is the window as read, false if it is
+     *         the reverse complement
+     */
+    public boolean forward(){
+	return kmer <= reverse;
+    }
+
+    /**
+     * @return the window's rolling hash, non-negative, valid while full
+     */
+    public long hash(){
+	return hash & Long.MAX_VALUE;
+    }
+
+    /**
+     * Hashes len characters of a sequence, as a roller over them would.
+     *
+     * @param seq  the sequence to read from
+     * @param from the index of the first base
+     * @param len  the number of bases to hash
+     * @return     the hash, or Bases.INVALID if a non-ACGT base is present
+     */
+    public static long hash(CharSequence seq, int from, int len){
+	long h = 0;
+	for(int i = from; i < from+len; i++){
+	    int code = Bases.code(seq.charAt(i));
+	    if(code < 0)
+		return Bases.INVALID;
+	    h = Long.rotateLeft(h,1) ^ SEEDS[code];
+	}
+	return h & Long.MAX_VALUE;
+    }
+
+    /**
+     * Hashes the reverse complement of len characters of a sequence, as
+     * hash would hash it written out.
+     *
+     * @return the hash, or Bases.INVALID if a non-ACGT base is present
+     */
+    public static long reverseHash(CharSequence seq, int from, int len){
+	long h = 0;
+	for(int i = from+len-1; i >= from; i--){
+	    int code = Bases.code(seq.charAt(i));
+	    if(code < 0)
+		return Bases.INVALID;
+	    h = Long.rotateLeft(h,1) ^ SEEDS[3-code];
+	}
+	return h & Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * Open-addressing hash table from non-negative long keys to int values.
+ * <p>
+ * Used in place of HashMap&lt;String,Integer&gt; for the k-mer indexes.
+ * Keys and values live in two flat arrays, so an entry costs 12 bytes of
+ * table space instead of a String, a char[], a boxed Integer and a map
+ * node, and a lookup allocates nothing.
+ * <p>
+ * Negative keys are reserved (-1 marks an empty slot), which matches
+ * Bases.INVALID: looking up an invalid k-mer simply finds nothing.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+
+final class LongIntMap{
+    /** Returned by get when a key is absent. */
+    public static final int MISSING = -1;
+
+    private static final long EMPTY = -1L;
+    private static final float LOAD = 0.75f;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int limit;
+
+    /**
+     * Receives every entry of a map.
+     * @see #forEach
+     */
+    interface Visitor{
+	void visit(long key, int value);
+    }
+
+    /**
+     * @param expected the number of entries to size the table for
+     */
+    public LongIntMap(int expected){
+	int capacity = Integer.highestOneBit(Math.max(4,(int)(expected/LOAD))-1) << 1;
+	allocate(capacity);
+    }
+
+    /**
+     * @param key the key to look up
+     * @return    the value stored for key, or MISSING
+     */
+    public int get(long key){
+	if(key < 0)
+	    return MISSING;
+	for(int slot = slot(key); ; slot = (slot+1) & mask){
+	    if(keys[slot] == key)
+		return values[slot];
+	    if(keys[slot] == EMPTY)
+		return MISSING;
+	}
+    }
+
+    public boolean containsKey(long key){
+	return get(key) != MISSING;
+    }
+
+    /**
+     * Stores value under key unless key is already present.
+     *
+     * @return the value already stored for key, or MISSING if value was stored
+     */
+    public int putIfAbsent(long key, int value){
+	int slot = find(key);
+	if(keys[slot] == key)
+	    return values[slot];
+	insert(slot,key,value);
+	return MISSING;
+    }
+
+    /**
+     * Stores value under key, replacing any previous value.
+     */
+    public void put(long key, int value){
+	int slot = find(key);
+	if(keys[slot] == key)
+	    values[slot] = value;
+	else
+	    insert(slot,key,value);
+    }
+
+    /**
+     * Adds delta to the value stored for key, treating an absent key as 0.
+     *
+     * @return the updated value
+     */
+    public int increment(long key, int delta){
+	int slot = find(key);
+	if(keys[slot] == key)
+	    return values[slot] += delta;
+	insert(slot,key,delta);
+	return delta;
+    }
+
+    public int size(){
+	return size;
+    }
+
+    public void clear(){
+	Arrays.fill(keys,EMPTY);
+	size = 0;
+    }
+
+    /**
+     * Passes every entry to the visitor, in table order.
+     */
+    public void forEach(Visitor visitor){
+	for(int slot = 0; slot < keys.length; slot++)
+	    if(keys[slot] != EMPTY)
+		visitor.visit(keys[slot],values[slot]);
+    }
+
+    /**
+     * Writes the table, slots and all, in the layout read back by read.
+     */
+    public void write(MappedFile out) throws IOException{
+	out.putInt(keys.length);
+	out.putInt(size);
+	out.putLongs(keys);
+	out.putInts(values);
+    }
+
+    /**
+     * Reads a table saved by write. The slot arrays are restored as they
+     * were, so nothing has to be rehashed.
+     *
+     * @throws IOException if the file cannot be read, or holds no table
+     *                     that write could have saved
+     */
+    public static LongIntMap read(MappedFile in) throws IOException{
+	int capacity = in.getInt();
+	int size = in.getInt();
+	//A bad capacity would mask probes wrongly, and a full table would
+	//leave get no empty slot to stop at
+	if(capacity < 4 || Integer.bitCount(capacity) != 1 || size < 0 || size > (int)(capacity*LOAD)
+	   || 12L*capacity > in.remaining())
+	    throw new IOException("Damaged table of capacity " + capacity + " holding " + size);
+	LongIntMap map = new LongIntMap(0);
+	map.keys = new long[capacity];
+	map.values = new int[capacity];
+	map.mask = capacity-1;
+	map.limit = (int)(capacity*LOAD);
+	map.size = size;
+	in.getLongs(map.keys);
+	in.getInts(map.values);
+	return map;
+    }
+
+    private int slot(long key){
+	return (int)Bases.mix(key) & mask;
+    }
+
+    //Finds the slot holding key, or the empty slot where it belongs
+    private int find(long key){
+	if(key < 0)
+	    throw new IllegalArgumentException("Negative key " + key);
+	int slot = slot(key);
+	while(keys[slot] != key && keys[slot] != EMPTY)
+	    slot = (slot+1) & mask;
+	return slot;
+    }
+
+    private void insert(int slot, long key, int value){
+	keys[slot] = key;
+	values[slot] = value;
+	if(++size > limit)
+	    rehash();
+    }
+
+    private void rehash(){
+	long[] oldKeys = keys;
+	int[] oldValues = values;
+	allocate(keys.length*2);
+	for(int i = 0; i < oldKeys.length; i++){
+	    if(oldKeys[i] == EMPTY)
+		continue;
+	    int slot = slot(oldKeys[i]);
+	    while(keys[slot] != EMPTY)
+		slot = (slot+1) & mask;
+	    keys[slot] = oldKeys[i];
+	    values[slot] = oldValues[i];
+	}
+    }
+
+    private void allocate(int capacity){
+	keys = new long[capacity];
+	values = new int[capacity];
+	Arrays.fill(keys,EMPTY);
+	mask = capacity-1;
+	limit = (int)(capacity*LOAD);
+    }
+}
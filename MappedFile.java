@@ -0,0 +1,138 @@
+/**
+ * Sequential binary reader/writer over a memory-mapped file.
+ * <p>
+ * Used to save and restore the primitive arrays behind the reference
+ * index. Arrays are copied through mapped windows of at most 1GB, so
+ * they move at memory speed in either direction and files larger than a
+ * single MappedByteBuffer are handled. Values are little-endian, so an
+ * index built on one machine can be read on another.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+final class MappedFile implements Closeable{
+    private static final int WINDOW = 1 << 30;
+
+    private final FileChannel channel;
+    private final FileChannel.MapMode mode;
+    private long position;
+
+    private MappedFile(FileChannel channel, FileChannel.MapMode mode){
+	this.channel = channel;
+	this.mode = mode;
+    }
+
+    /**
+     * @param file an existing file to read
+     * @return     a reader positioned at the start of file
+     */
+    public static MappedFile openRead(File file) throws IOException{
+	return new MappedFile(FileChannel.open(file.toPath(),StandardOpenOption.READ),
+			      FileChannel.MapMode.READ_ONLY);
+    }
+
+    /**
+     * @param file the file to write, replacing any existing contents
+     * @return     a writer positioned at the start of file
+     */
+    public static MappedFile openWrite(File file) throws IOException{
+	return new MappedFile(FileChannel.open(file.toPath(),StandardOpenOption.READ,
+					       StandardOpenOption.WRITE,StandardOpenOption.CREATE,
+					       StandardOpenOption.TRUNCATE_EXISTING),
+			      FileChannel.MapMode.READ_WRITE);
+    }
+
+    /**
+     * @return the number of bytes left between the position and the end of the file
+     */
+    public long remaining() throws IOException{
+	return channel.size()-position;
+    }
+
+    public int getInt() throws IOException{
+	return map(4).getInt();
+    }
+
+    public long getLong() throws IOException{
+	return map(8).getLong();
+    }
+
+    public void putInt(int value) throws IOException{
+	map(4).putInt(value);
+    }
+
+    public void putLong(long value) throws IOException{
+	map(8).putLong(value);
+    }
+
+    /**
+     * Fills an array from the file.
+     */
+    public void getLongs(long[] values) throws IOException{
+	for(int i = 0; i < values.length; i += WINDOW/8){
+	    int n = Math.min(WINDOW/8,values.length-i);
+	    map(n*8L).asLongBuffer().get(values,i,n);
+	}
+    }
+
+    /**
+     * Fills an array from the file.
+     */
+    public void getInts(int[] values) throws IOException{
+	for(int i = 0; i < values.length; i += WINDOW/4){
+	    int n = Math.min(WINDOW/4,values.length-i);
+	    map(n*4L).asIntBuffer().get(values,i,n);
+	}
+    }
+
+    /**
+     * Writes a whole array to the file.
+     */
+    public void putLongs(long[] values) throws IOException{
+	for(int i = 0; i < values.length; i += WINDOW/8){
+	    int n = Math.min(WINDOW/8,values.length-i);
+	    map(n*8L).asLongBuffer().put(values,i,n);
+	}
+    }
+
+    /**
+     * Writes a whole array to the file.
+     */
+    public void putInts(int[] values) throws IOException{
+	for(int i = 0; i < values.length; i += WINDOW/4){
+	    int n = Math.min(WINDOW/4,values.length-i);
+	    map(n*4L).asIntBuffer().put(values,i,n);
+	}
+    }
+
+    /**
+     * Closes the file, first flushing anything written to the disk.
+     */
+    public void close() throws IOException{
+	try{
+	    if(mode == FileChannel.MapMode.READ_WRITE)
+		channel.force(true);
+	}
+	finally{
+	    channel.close();
+	}
+    }
+
+    //Maps the next bytes of the file and advances past them
+    private ByteBuffer map(long bytes) throws IOException{
+	if(mode == FileChannel.MapMode.READ_ONLY && bytes > remaining())
+	    throw new IOException("Unexpected end of " + channel);
+	ByteBuffer buffer = channel.map(mode,position,bytes).order(ByteOrder.LITTLE_ENDIAN);
+	position += bytes;
+	return buffer;
+    }
+}
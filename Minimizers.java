@@ -0,0 +1,95 @@
+/**
+ * Picks the (w,k)-minimizers of a stream of k-mers: of every w
+ * consecutive k-mers, the one whose hash is smallest.
+ * <p>
+ * Two sequences sharing a stretch of w+k-1 bases are guaranteed to
+ * pick the same minimizer inside it, so indexing only the minimizers of
+ * the reference still finds every read, while keeping roughly
+ * 2/(w+1) of the k-mers. K-mers are ordered by Bases.mix rather than by
+ * code, so low-complexity k-mers like AAAA... are not favoured. Ties
+ * go to the rightmost k-mer.
+ * <p>
+ * The window is kept as a monotone queue, so each k-mer costs O(1)
+ * amortized. A Minimizers keeps state between calls and is not
+ * thread-safe.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ */
+
+final class Minimizers{
+    private final int window;
+
+    //Ring buffer of candidates, hashes increasing from head to tail
+    private final long[] kmers;
+    private final long[] hashes;
+    private final int[] positions;
+    private int head, size;
+    private int added;
+    private int last;
+
+    /**
+     * @param window the number of consecutive k-mers each minimizer is picked from
+     */
+    public Minimizers(int window){
+	this.window = window;
+	kmers = new long[window];
+	hashes = new long[window];
+	positions = new int[window];
+	reset();
+    }
+
+    /**
+     * Starts a new sequence.
+     */
+    public void reset(){
+	head = 0;
+	size = 0;
+	added = 0;
+	last = -1;
+    }
+
+    /**
+     * Adds the next k-mer of the sequence.
+     *
+     * @param kmer the k-mer's code, or Bases.INVALID if it holds an N
+     * @param pos  its position, one more than the previous k-mer's
+     * @return     true if a new minimizer was picked, see kmer() and position()
+     */
+    public boolean add(long kmer, int pos){
+	added++;
+	//Drop the candidate that slid out of the window
+	if(size > 0 && positions[head] <= pos-window){
+	    head = (head+1)%window;
+	    size--;
+	}
+	if(kmer != Bases.INVALID){
+	    long hash = Bases.mix(kmer) & Long.MAX_VALUE;
+	    while(size > 0 && hashes[(head+size-1)%window] >= hash)
+		size--;
+	    int tail = (head+size)%window;
+	    kmers[tail] = kmer;
+	    hashes[tail] = hash;
+	    positions[tail] = pos;
+	    size++;
+	}
+	if(added < window || size == 0 || positions[head] == last)
+	    return false;
+	last = positions[head];
+	return true;
+    }
+
+    /**
+     * @return the code of the last minimizer picked
+     */
+    public long kmer(){
+	return kmers[head];
+    }
+
+    /**
+     * @return the position of the last minimizer picked
+     */
+    public int position(){
+	return positions[head];
+    }
+}
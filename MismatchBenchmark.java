@@ -0,0 +1,131 @@
+/**
+ * Times the SNP check of Alignment.checkSNP, a word of bases at a time
+ * against the packed reference (SWAR), against the character-by-character
+ * loop it replaced.
+ * <p>
+ * A random reference is packed, and reads of each length are cut from it
+ * with two substitutions apiece. Both checks walk every read at its true
+ * position and build the same SNP keys, whose sums must agree; summing
+ * them also keeps either loop from being optimized away.
+ * Each is run a few times to warm up, and the best of ROUNDS timed runs
+ * is reported.
+ * <p>
+ * Usage:
+ * <pre>
+ * java MismatchBenchmark [READS] [LENGTH...]
+ * </pre>
+ * READS defaults to 100,000 and the lengths to 50, 100 and 150.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ */
+
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+public class MismatchBenchmark{
+    private static final int GENOME = 1 << 20;
+    private static final int MAXSNPS = 3;
+    private static final int WARMUP = 10;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args){
+	int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+	int[] lengths = {50,100,150};
+	if(args.length > 1){
+	    lengths = new int[args.length-1];
+	    for(int i = 1; i < args.length; i++)
+		lengths[i-1] = Integer.parseInt(args[i]);
+	}
+
+	Random random = new Random(1);
+	PackedSequence genome = new PackedSequence(GENOME);
+	for(int i = 0; i < GENOME; i++)
+	    genome.append(Bases.base(random.nextInt(4)));
+
+	System.out.println("length  per-char ns/read  SWAR ns/read");
+	for(int length : lengths){
+	    String[] reads = new String[count];
+	    int[] positions = new int[count];
+	    for(int r = 0; r < count; r++){
+		positions[r] = random.nextInt(GENOME-length);
+		char[] read = genome.substring(positions[r],positions[r]+length).toCharArray();
+		for(int s = 0; s < 2; s++){
+		    int at = random.nextInt(length);
+		    read[at] = Bases.base((Bases.code(read[at])+1+random.nextInt(3)) & 3);
+		}
+		reads[r] = new String(read);
+	    }
+	    long[] loop = time(() -> perChar(genome,reads,positions),count);
+	    long[] swar = time(() -> swar(genome,reads,positions),count);
+	    if(loop[1] != swar[1])
+		throw new IllegalStateException("The checks disagree at length " + length);
+	    System.out.printf("%6d  %16d  %12d%n",length,loop[0],swar[0]);
+	}
+    }
+
+    //Returns the best ns per read over ROUNDS runs, and the keys' sum
+    private static long[] time(LongSupplier check, int count){
+	long sum = 0;
+	for(int i = 0; i < WARMUP; i++)
+	    sum = check.getAsLong();
+	long best = Long.MAX_VALUE;
+	for(int i = 0; i < ROUNDS; i++){
+	    long start = System.nanoTime();
+	    sum = check.getAsLong();
+	    best = Math.min(best,System.nanoTime()-start);
+	}
+	return new long[]{best/count,sum};
+    }
+
+    //The loop checkSNP used before: a base at a time, through charAt
+    private static long perChar(PackedSequence genome, String[] reads, int[] positions){
+	long sum = 0;
+	long[] found = new long[MAXSNPS];
+	for(int r = 0; r < reads.length; r++){
+	    String read = reads[r];
+	    int pos = positions[r];
+	    int snpfound = 0;
+	    for(int i = 0; i < read.length(); i++){
+		char base = genome.charAt(pos+i);
+		if(base != read.charAt(i)){
+		    if(snpfound == MAXSNPS){
+			snpfound = 0;
+			break;
+		    }
+		    found[snpfound++] = VariantKey.snp(base,read.charAt(i),pos+i);
+		}
+	    }
+	    for(int i = 0; i < snpfound; i++)
+		sum += found[i];
+	}
+	return sum;
+    }
+
+    //The loop checkSNP uses now: Bases.MAX_K bases at a time
+    private static long swar(PackedSequence genome, String[] reads, int[] positions){
+	long sum = 0;
+	next:
+	for(int r = 0; r < reads.length; r++){
+	    String read = reads[r];
+	    int length = read.length();
+	    int pos = positions[r];
+	    int snpfound = 0;
+	    long found = 0;
+	    for(int off = 0; off < length; off += Bases.MAX_K){
+		int len = Math.min(Bases.MAX_K,length-off);
+		long diff = genome.mismatches(Bases.encode(read,off,len),read,off,len,pos+off);
+		snpfound += Long.bitCount(diff);
+		if(snpfound > MAXSNPS)
+		    continue next;
+		for(; diff != 0; diff ^= Long.highestOneBit(diff))
+		    found = found << 16 | (off+len-1-(63-Long.numberOfLeadingZeros(diff))/2);
+	    }
+	    for(int n = snpfound-1; n >= 0; n--){
+		int i = (int)(found >>> 16*n) & 0xffff;
+		sum += VariantKey.snp(genome.charAt(pos+i),read.charAt(i),pos+i);
+	    }
+	}
+	return sum;
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * A directed graph over nodes numbered 0 to nodes-1, in compressed
+ * sparse row (CSR) form, as built by the assemblers.
+ * <p>
+ * The edges leaving node n are target(start(n)) to target(end(n)-1), in
+ * the order they were added, so following an edge is one array read
+ * and no node has to be searched for. Edges are numbered by their index
+ * in that range, which lets callers keep per-edge state (such as whether
+ * an edge has been walked) in a plain array. Each node's in-degree is
+ * counted as edges are added.
+ * <p>
+ * Edges must be added grouped by source node, in increasing order, and
+ * finish() called once the last one is in. After that, edges can be
+ * removed in place for simplifying the graph: the node's later edges
+ * shift down one, keeping their order, and the degrees stay current.
+ * Edges keep their numbers until one before them is removed.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ */
+
+import java.util.Arrays;
+
+final class OverlapGraph{
+    private final int nodes;
+    private final int[] offsets;
+    //Where each node's edges end, once finished
+    private int[] ends;
+    private final int[] inDegree;
+    private int[] targets;
+    private int edges;
+    //The node whose edges are being added
+    private int last;
+
+    /**
+     * @param nodes the number of nodes
+     */
+    public OverlapGraph(int nodes){
+	this.nodes = nodes;
+	offsets = new int[nodes+1];
+	inDegree = new int[nodes];
+	targets = new int[Math.max(16,nodes)];
+    }
+
+    /**
+     * Adds an edge. Source nodes must not decrease from one call to the next.
+     *
+     * @param from the source node
+     * @param to   the target node
+     */
+    public void addEdge(int from, int to){
+	if(from < last)
+	    throw new IllegalArgumentException("Edge from " + from + " added after edges from " + last);
+	while(last < from)
+	    offsets[++last] = edges;
+	if(edges == targets.length)
+	    targets = Arrays.copyOf(targets,edges*2);
+	targets[edges++] = to;
+	inDegree[to]++;
+    }
+
+    /**
+     * Ends the graph, closing off the nodes after the last one with edges.
+     */
+    public void finish(){
+	while(last < nodes)
+	    offsets[++last] = edges;
+	ends = Arrays.copyOfRange(offsets,1,nodes+1);
+    }
+
+    /**
+     * Removes one of a node's edges.
+     *
+     * @param node the edge's source node
+     * @param edge the edge, between start(node) and end(node)
+     */
+    public void removeEdge(int node, int edge){
+	inDegree[targets[edge]]--;
+	System.arraycopy(targets,edge+1,targets,edge,ends[node]-edge-1);
+	ends[node]--;
+    }
+
+    /**
+     * @return a graph with every edge of this one turned around, for
+     *         finding the edges entering a node, their sources in
+     *         increasing order
+     */
+    public OverlapGraph reverse(){
+	int[] at = new int[nodes+1];
+	for(int n = 0; n < nodes; n++)
+	    for(int e = start(n); e < end(n); e++)
+		at[targets[e]+1]++;
+	for(int n = 0; n < nodes; n++)
+	    at[n+1] += at[n];
+	int[] sources = new int[at[nodes]];
+	for(int n = 0; n < nodes; n++)
+	    for(int e = start(n); e < end(n); e++)
+		sources[at[targets[e]]++] = n;
+	//Each at[n] now marks the end of node n's sources
+	OverlapGraph reverse = new OverlapGraph(nodes);
+	for(int n = 0, e = 0; n < nodes; n++)
+	    for(; e < at[n]; e++)
+		reverse.addEdge(n,sources[e]);
+	reverse.finish();
+	return reverse;
+    }
+
+    public int nodes(){
+	return nodes;
+    }
+
+    /**
+     * @return the number of edges added, counting any removed since
+     */
+    public int edges(){
+	return edges;
+    }
+
+    /**
+     * @return the number of the first edge leaving a node
+     */
+    public int start(int node){
+	return offsets[node];
+    }
+
+    /**
+     * @return the number just past the last edge leaving a node
+     */
+    public int end(int node){
+	return ends[node];
+    }
+
+    /**
+     * @return the node an edge points to
+     */
+    public int target(int edge){
+	return targets[edge];
+    }
+
+    public int outDegree(int node){
+	return ends[node]-offsets[node];
+    }
+
+    public int inDegree(int node){
+	return inDegree[node];
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * A nucleotide sequence stored at 2 bits per base in a long[].
+ * <p>
+ * Holds the reference genome for Alignment at a quarter of the memory of
+ * a byte per base (an eighth of a Java String), and can hand out k-mer
+ * codes at any position without building substrings. Each word holds 32
+ * bases, first base in the most significant bits, matching Bases.encode.
+ * <p>
+ * Characters other than ACGT are stored as A and flagged in a bit mask,
+ * so charAt still reports them as N and k-mers spanning them can be skipped.
+ * The mask is only allocated once the first such character is seen.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+
+final class PackedSequence{
+    private long[] words;
+    private int length;
+    private long[] ambiguous;
+
+    /**
+     * @param capacity the number of bases to reserve space for
+     */
+    public PackedSequence(int capacity){
+	words = new long[Math.max(1,(capacity+31) >>> 5)];
+    }
+
+    /**
+     * Appends a base to the end of the sequence.
+     *
+     * @param c the base character. Anything other than ACGT is stored as N.
+     */
+    public void append(char c){
+	int code = Bases.code(c);
+	if((length >>> 5) == words.length)
+	    words = Arrays.copyOf(words,words.length*2);
+	if(code < 0){
+	    int needed = (words.length+1) >>> 1;
+	    if(ambiguous == null)
+		ambiguous = new long[needed];
+	    else if(ambiguous.length < needed)
+		ambiguous = Arrays.copyOf(ambiguous,needed);
+	    ambiguous[length >>> 6] |= 1L << length;
+	    code = 0;
+	}
+	words[length >>> 5] |= (long)code << (62 - ((length & 31) << 1));
+	length++;
+    }
+
+    /**
+     * Makes room for a number of bases in total, so that appending up to
+     * that length never has to copy the sequence.
+     *
+     * @param capacity the number of bases to make room for
+     */
+    public void ensureCapacity(int capacity){
+	int needed = (capacity+31) >>> 5;
+	if(needed > words.length)
+	    words = Arrays.copyOf(words,needed);
+    }
+
+    public int length(){
+	return length;
+    }
+
+    /**
+     * @param pos a position in the sequence
+     * @return    the 2-bit code of the base at pos
+     */
+    public int code(int pos){
+	return (int)(words[pos >>> 5] >>> (62 - ((pos & 31) << 1))) & 3;
+    }
+
+    /**
+     * @param pos a position in the sequence
+     * @return    the base at pos, or 'N' if an ambiguous base was loaded there
+     */
+    public char charAt(int pos){
+	if(isAmbiguous(pos,pos+1))
+	    return 'N';
+	return Bases.base(code(pos));
+    }
+
+    /**
+     * Gives the code of the k-mer starting at pos, in the format of Bases.encode.
+     *
+     * @param pos the k-mer's first position; pos+k must not exceed length()
+     * @param k   the k-mer length, at most Bases.MAX_K
+     * @return    the 2-bit encoded k-mer, or Bases.INVALID if it spans an ambiguous base
+     */
+    public long kmer(int pos, int k){
+	if(isAmbiguous(pos,pos+k))
+	    return Bases.INVALID;
+	int w = pos >>> 5;
+	int shift = (pos & 31) << 1;
+	long bits = words[w] << shift;
+	if(shift != 0 && w+1 < words.length)
+	    bits |= words[w+1] >>> (64 - shift);
+	return bits >>> (64 - (k << 1));
+    }
+
+    /**
+     * Compares up to Bases.MAX_K bases of a read with the sequence in one
+     * step. The 2-bit codes are XORed, and each base's two bits folded into
+     * one, so the result has one bit set per mismatch (SWAR): the
+     * mismatch count is its bitCount, and the base at offset i of the
+     * chunk is bit 2*(len-1-i).
+     *
+     * @param bases the chunk's code, or Bases.INVALID if it holds an N
+     * @param read  the read being compared
+     * @param off   the offset in read of the chunk
+     * @param len   the chunk's length, at most Bases.MAX_K
+     * @param pos   the position in the sequence to compare it with
+     * @return      the mismatch bits
+     */
+    public long mismatches(long bases, CharSequence read, int off, int len, int pos){
+	long ref = kmer(pos,len);
+	if(bases != Bases.INVALID && ref != Bases.INVALID){
+	    long diff = bases ^ ref;
+	    return (diff | (diff >>> 1)) & 0x5555555555555555L;
+	}
+	//Reads or windows with an N cannot be packed, compare them by hand
+	long diff = 0;
+	for(int i = 0; i < len; i++)
+	    if(charAt(pos+i) != read.charAt(off+i))
+		diff |= 1L << 2*(len-1-i);
+	return diff;
+    }
+
+    /**
+     * Checks a range of the sequence for bases that were loaded as N.
+     *
+     * @param from the first position, inclusive
+     * @param to   the last position, exclusive
+     * @return     true if any base in the range is ambiguous
+     */
+    public boolean isAmbiguous(int from, int to){
+	if(ambiguous == null || from >= to)
+	    return false;
+	int first = from >>> 6;
+	int last = (to-1) >>> 6;
+	for(int w = first; w <= last && w < ambiguous.length; w++){
+	    long bits = ambiguous[w];
+	    if(w == first)
+		bits &= -1L << from;
+	    if(w == last)
+		bits &= -1L >>> (63 - ((to-1) & 63));
+	    if(bits != 0)
+		return true;
+	}
+	return false;
+    }
+
+    /**
+     * Unpacks part of the sequence as a String.
+     *
+     * @param from the first position, inclusive
+     * @param to   the last position, exclusive
+     * @return     the bases between from and to
+     */
+    public String substring(int from, int to){
+	if(from < 0 || to > length || from > to)
+	    throw new StringIndexOutOfBoundsException("begin " + from + ", end " + to + ", length " + length);
+	StringBuilder sb = new StringBuilder(to-from);
+	for(int i = from; i < to; i++)
+	    sb.append(charAt(i));
+	return sb.toString();
+    }
+
+    /**
+     * Writes the sequence in the layout read back by read.
+     */
+    public void write(MappedFile out) throws IOException{
+	out.putInt(length);
+	out.putInt(ambiguous == null ? 0 : ambiguous.length);
+	out.putLongs(Arrays.copyOf(words,(length+31) >>> 5));
+	if(ambiguous != null)
+	    out.putLongs(ambiguous);
+    }
+
+    /**
+     * Reads a sequence saved by write.
+     */
+    public static PackedSequence read(MappedFile in) throws IOException{
+	int length = in.getInt();
+	int ambiguousWords = in.getInt();
+	PackedSequence seq = new PackedSequence(length);
+	long[] words = new long[(length+31) >>> 5];
+	in.getLongs(words);
+	System.arraycopy(words,0,seq.words,0,words.length);
+	if(ambiguousWords > 0){
+	    seq.ambiguous = new long[ambiguousWords];
+	    in.getLongs(seq.ambiguous);
+	}
+	seq.length = length;
+	return seq;
+    }
+
+    /**
+     * Empties the sequence, keeping its storage for reuse.
+     */
+    public void clear(){
+	Arrays.fill(words,0);
+	ambiguous = null;
+	length = 0;
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * A bounded cache of the variants called from each distinct read, so
+ * that duplicate reads (common at high coverage) are checked only once.
+ * <p>
+ * Reads are keyed by their exact 2-bit packed bases and length, up to
+ * MAX_LENGTH bases in two longs, so two reads share an entry only if
+ * they are identical; reads that are longer or hold an N are not cached. The table is set
+ * associative: each key belongs to one set of WAYS slots, and when its
+ * set is full the entry used least recently (LRU) or, in FIFO mode,
+ * inserted longest ago is evicted. Everything is kept in primitive
+ * arrays, and the sets are split across SEGMENTS locks so that worker
+ * threads rarely wait on each other.
+ * <p>
+ * Hits, misses and evictions are counted, so the cache can be checked
+ * to pay for itself on a run.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+final class ReadCache{
+    /** The most variants one entry holds; reads calling more are not cached. */
+    public static final int MAX_CALLS = 4;
+    /** The longest read that can be cached, leaving room for its length. */
+    public static final int MAX_LENGTH = 2*Bases.MAX_K-3;
+    private static final int LENGTH_SHIFT = 2*(MAX_LENGTH-Bases.MAX_K);
+
+    private static final int WAYS = 8;
+    private static final int SEGMENTS = 64;
+    private static final long EMPTY = -1L;
+
+    private final boolean lru;
+    private final int setMask;
+    private final long[] high;
+    private final long[] low;
+    private final int[] stamps;
+    private final byte[] counts;
+    private final long[] calls;
+    private final Object[] locks = new Object[SEGMENTS];
+    private final int[] clocks = new int[SEGMENTS];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity the most reads to hold, rounded up to a power of two
+     * @param lru      true to evict the least recently used read, false
+     *                 to evict the one cached first
+     */
+    public ReadCache(int capacity, boolean lru){
+	int sets = Integer.highestOneBit(Math.max(SEGMENTS,(capacity+WAYS-1)/WAYS)-1) << 1;
+	this.lru = lru;
+	this.setMask = sets-1;
+	high = new long[sets*WAYS];
+	low = new long[sets*WAYS];
+	stamps = new int[sets*WAYS];
+	counts = new byte[sets*WAYS];
+	calls = new long[sets*WAYS*MAX_CALLS];
+	Arrays.fill(high,EMPTY);
+	for(int s = 0; s < SEGMENTS; s++)
+	    locks[s] = new Object();
+    }
+
+    /**
+     * Packs a read into a cache key.
+     *
+     * @param read the read
+     * @param key  where the key's two halves are written
+     * @return     false if the read cannot be cached
+     */
+    public static boolean key(CharSequence read, long[] key){
+	int length = read.length();
+	if(length > MAX_LENGTH)
+	    return false;
+	int head = Math.min(length,Bases.MAX_K);
+	key[0] = Bases.encode(read,0,head);
+	key[1] = Bases.encode(read,head,length-head);
+	if(key[0] == Bases.INVALID || key[1] == Bases.INVALID)
+	    return false;
+	//Tell reads of different lengths apart
+	key[1] |= (long)length << LENGTH_SHIFT;
+	return true;
+    }
+
+    /**
+     * Looks a read up, adding its cached variants to a tally on a hit.
+     *
+     * @param key   the read's key
+     * @param tally where the read's variants are added
+     * @return      true on a hit
+     */
+    public boolean replay(long[] key, VariantTally tally){
+	int set = set(key);
+	synchronized(locks[set & (SEGMENTS-1)]){
+	    for(int slot = set*WAYS; slot < (set+1)*WAYS; slot++){
+		if(high[slot] != key[0] || low[slot] != key[1])
+		    continue;
+		if(lru)
+		    stamps[slot] = ++clocks[set & (SEGMENTS-1)];
+		for(int c = 0; c < counts[slot]; c++)
+		    tally.add(calls[slot*MAX_CALLS+c]);
+		hits.increment();
+		return true;
+	    }
+	}
+	misses.increment();
+	return false;
+    }
+
+    /**
+     * Caches the variants called from a read, evicting another read if
+     * its set is full. Reads calling more than MAX_CALLS are skipped.
+     *
+     * @param key      the read's key
+     * @param variants every variant called from the read
+     */
+    public void put(long[] key, VariantTally variants){
+	int n = 0;
+	for(int i = 0; i < variants.size(); i++)
+	    n += variants.count(variants.key(i));
+	if(n > MAX_CALLS)
+	    return;
+	int set = set(key);
+	synchronized(locks[set & (SEGMENTS-1)]){
+	    int victim = set*WAYS;
+	    for(int slot = set*WAYS; slot < (set+1)*WAYS; slot++){
+		//Another thread may have cached it first
+		if(high[slot] == key[0] && low[slot] == key[1])
+		    return;
+		if(high[slot] == EMPTY){
+		    victim = slot;
+		    break;
+		}
+		if(stamps[slot]-stamps[victim] < 0)
+		    victim = slot;
+	    }
+	    if(high[victim] != EMPTY)
+		evictions.increment();
+	    high[victim] = key[0];
+	    low[victim] = key[1];
+	    stamps[victim] = ++clocks[set & (SEGMENTS-1)];
+	    int c = 0;
+	    for(int i = 0; i < variants.size(); i++)
+		for(int k = variants.count(variants.key(i)); k > 0; k--)
+		    calls[victim*MAX_CALLS+c++] = variants.key(i);
+	    counts[victim] = (byte)c;
+	}
+    }
+
+    public long hits(){
+	return hits.sum();
+    }
+
+    public long misses(){
+	return misses.sum();
+    }
+
+    public long evictions(){
+	return evictions.sum();
+    }
+
+    /**
+     * @return a one-line summary of the counters, for logs
+     */
+    public String stats(){
+	long h = hits(), m = misses();
+	return String.format("Read cache: %d hits, %d misses (%.1f%% hit rate), %d evictions",
+			     h,m,h+m == 0 ? 0.0 : 100.0*h/(h+m),evictions());
+    }
+
+    private int set(long[] key){
+	return (int)Bases.mix(key[0]*31+key[1]) & setMask;
+    }
+}
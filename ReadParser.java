@@ -0,0 +1,273 @@
+/**
+ * Splits read input, one read or "read,pair" per line, without building
+ * a String per line.
+ * <p>
+ * Input is pulled through one large direct ByteBuffer and scanned byte
+ * by byte for line breaks and commas. After next(), each comma-separated
+ * field of the line is available as a CharSequence view straight over the
+ * buffer, which Bases.encode and KmerRoller take as they are; only
+ * callers that keep a read need toString. A view is only valid until
+ * the next call to next().
+ * <p>
+ * To spread parsing across threads, chunk() cuts off the next run of
+ * whole lines as a plain byte array, which a worker can split with its
+ * own ReadParser. Carriage returns before a line break are dropped.
+ * <p>
+ * The buffer grows when a single line fills it, and for a chunk only up
+ * to BUFFER bytes; a longer chunk is cut short instead. Input from an
+ * untrusted source can be given a longest line, past which reading
+ * fails, so the buffer stays within BUFFER or about twice that line.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+final class ReadParser implements AutoCloseable{
+    private static final int BUFFER = 1 << 22;
+    private static final int MAX_FIELDS = 8;
+    //A longest line that maxLine+1 cannot overflow
+    private static final int NO_LIMIT = Integer.MAX_VALUE-1;
+
+    private final ReadableByteChannel channel;
+    private ByteBuffer buffer;
+    //The most bytes a line may hold, not counting its line break
+    private final int maxLine;
+    private boolean eof;
+    private long lines;
+
+    //The current line's fields, as start and end indexes into buffer
+    private final int[] bounds = new int[2*MAX_FIELDS];
+    private int fields;
+    private int lineStart, lineEnd;
+    private final Field[] views = new Field[MAX_FIELDS];
+
+    private ReadParser(ReadableByteChannel channel, ByteBuffer buffer, int maxLine){
+	this.channel = channel;
+	this.buffer = buffer;
+	this.maxLine = maxLine;
+	this.eof = channel == null;
+	for(int f = 0; f < MAX_FIELDS; f++)
+	    views[f] = new Field(f);
+    }
+
+    /**
+     * @param in the stream to read, usually System.in
+     * @return   a parser reading from it
+     */
+    public static ReadParser of(InputStream in){
+	return of(Channels.newChannel(in),BUFFER,NO_LIMIT);
+    }
+
+    /**
+     * @param in       the stream to read
+     * @param capacity the buffer size to start with, for callers running
+     *                 many parsers at once
+     * @param maxLine  the most bytes a line may hold; a longer line makes
+     *                 next() and chunk() throw
+     * @return         a parser reading from it
+     */
+    public static ReadParser of(InputStream in, int capacity, int maxLine){
+	return of(Channels.newChannel(in),capacity,maxLine);
+    }
+
+    /**
+     * @param file the file of reads to read
+     * @return     a parser reading from it
+     * @throws IOException if the file cannot be opened
+     */
+    public static ReadParser of(File file) throws IOException{
+	return of(FileChannel.open(file.toPath(),StandardOpenOption.READ),BUFFER,NO_LIMIT);
+    }
+
+    private static ReadParser of(ReadableByteChannel channel, int capacity, int maxLine){
+	ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+	buffer.flip();
+	return new ReadParser(channel,buffer,maxLine);
+    }
+
+    /**
+     * @param chunk whole lines, as cut off by chunk()
+     * @return      a parser over them
+     */
+    public static ReadParser of(byte[] chunk){
+	return new ReadParser(null,ByteBuffer.wrap(chunk),NO_LIMIT);
+    }
+
+    /**
+     * Moves to the next line.
+     *
+     * @return false at the end of the input
+     * @throws IOException if the input cannot be read, or the line is too long
+     */
+    public boolean next() throws IOException{
+	int end = lineEnd(buffer.position(),true);
+	if(end < 0)
+	    return false;
+	int start = buffer.position();
+	buffer.position(Math.min(end+1,buffer.limit()));
+	lines++;
+	if(end > start && buffer.get(end-1) == '\r')
+	    end--;
+	lineStart = start;
+	lineEnd = end;
+	fields = 0;
+	for(int i = start; fields < MAX_FIELDS; i++){
+	    if(i == end || buffer.get(i) == ','){
+		bounds[2*fields] = start;
+		bounds[2*fields+1] = i;
+		fields++;
+		start = i+1;
+		if(i == end)
+		    break;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * @return the number of comma-separated fields on the current line
+     */
+    public int fields(){
+	return fields;
+    }
+
+    /**
+     * @param f the index of a field of the current line
+     * @return  a view of the field, valid until the next line is read
+     */
+    public CharSequence field(int f){
+	return views[f];
+    }
+
+    /**
+     * @return the number of lines read so far, by next() and chunk()
+     */
+    public long lines(){
+	return lines;
+    }
+
+    /**
+     * @return the whole current line, commas and all
+     */
+    public String line(){
+	return string(lineStart,lineEnd);
+    }
+
+    /**
+     * Cuts off the next lines of input, whole, for another parser. Fewer
+     * lines are taken if they would grow the buffer past BUFFER bytes.
+     *
+     * @param count the most lines to take
+     * @return      the lines, or null at the end of the input
+     * @throws IOException if the input cannot be read, or a line is too long
+     */
+    public byte[] chunk(int count) throws IOException{
+	int from = buffer.position();
+	for(int taken = 0; taken < count; taken++){
+	    //A refill moves the lines taken so far, but not relative to position
+	    int size = from-buffer.position();
+	    int end = lineEnd(from,taken == 0 || buffer.capacity() < BUFFER);
+	    if(end < 0){
+		from = buffer.position()+size;
+		break;
+	    }
+	    from = Math.min(end+1,buffer.limit());
+	    lines++;
+	}
+	if(from == buffer.position())
+	    return null;
+	byte[] chunk = new byte[from-buffer.position()];
+	buffer.get(chunk);
+	return chunk;
+    }
+
+    public void close() throws IOException{
+	if(channel != null)
+	    channel.close();
+    }
+
+    //Finds the line break ending the line that starts at index from, or
+    //the end of the input for an unterminated last line, refilling the
+    //buffer as needed. Returns -1 when the input ends before from, or
+    //when the buffer would have to grow and grow is false.
+    //Refilling moves the bytes from the buffer's position on to its
+    //start, and the index returned is after the move.
+    private int lineEnd(int from, boolean grow) throws IOException{
+	for(int scan = from; ; ){
+	    int end = scan;
+	    while(end < buffer.limit() && buffer.get(end) != '\n')
+		end++;
+	    if(end-from > maxLine)
+		throw new IOException("Line longer than " + maxLine + " bytes");
+	    if(end < buffer.limit())
+		return end;
+	    if(eof)
+		return from < buffer.limit() ? buffer.limit() : -1;
+	    if(!grow && buffer.position() == 0 && buffer.limit() == buffer.capacity())
+		return -1;
+	    int shift = buffer.position();
+	    scan = buffer.limit()-shift;
+	    from -= shift;
+	    fill();
+	}
+    }
+
+    //Moves the unread bytes to the start of the buffer and reads more
+    //after them, growing the buffer if one line fills it
+    private void fill() throws IOException{
+	if(buffer.position() == 0 && buffer.limit() == buffer.capacity()){
+	    ByteBuffer bigger = ByteBuffer.allocateDirect(buffer.capacity()*2);
+	    bigger.put(buffer);
+	    buffer = bigger;
+	}
+	else
+	    buffer.compact();
+	while(buffer.hasRemaining())
+	    if(channel.read(buffer) < 0){
+		eof = true;
+		break;
+	    }
+	buffer.flip();
+    }
+
+    private String string(int from, int to){
+	byte[] bytes = new byte[to-from];
+	buffer.get(from,bytes);
+	return new String(bytes,StandardCharsets.ISO_8859_1);
+    }
+
+    //A field of the current line, read straight from the buffer
+    private final class Field implements CharSequence{
+	private final int f;
+
+	Field(int f){
+	    this.f = f;
+	}
+
+	public int length(){
+	    return bounds[2*f+1]-bounds[2*f];
+	}
+
+	public char charAt(int i){
+	    return (char)(buffer.get(bounds[2*f]+i) & 0xff);
+	}
+
+	public CharSequence subSequence(int from, int to){
+	    return toString().substring(from,to);
+	}
+
+	public String toString(){
+	    return string(bounds[2*f],bounds[2*f+1]);
+	}
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * A growable store of reads, packed at 2 bits per base, that moves to
+ * disk once it outgrows a memory budget.
+ * <p>
+ * Reads are numbered in the order they are added and laid end to end in
+ * pages of PAGE_WORDS longs, in the format of PackedSequence. Pages are
+ * kept on the heap until they would take more than the budget, and
+ * later pages are memory-mapped from a temporary file instead, so the
+ * operating system pages them in and out as they are used and a large
+ * assembly cannot exhaust the heap. Each read costs a long for its start
+ * besides its bases.
+ * <p>
+ * Reads holding a character other than ACGT are rare, and are kept whole
+ * as Strings beside the pages so they read back exactly. Reading is
+ * thread-safe once the last read has been added.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ * @see    PackedSequence
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+final class ReadStore implements Closeable{
+    private static final int PAGE_SHIFT = 17;
+    private static final int PAGE_WORDS = 1 << PAGE_SHIFT;
+    private static final long PAGE_BYTES = 8L*PAGE_WORDS;
+
+    private final long budget;
+    private final File dir;
+    private LongBuffer[] pages = new LongBuffer[16];
+    private int pageCount;
+    private File spillFile;
+    private FileChannel spill;
+    private int spilled;
+
+    //Read i is bases starts[i] to starts[i+1]-1
+    private long[] starts = new long[1024];
+    private int size;
+
+    private final BitSet ambiguous = new BitSet();
+    private final HashMap<Integer,String> unpacked = new HashMap<Integer,String>();
+
+    /**
+     * @param budget the most bytes of packed reads to keep on the heap
+     * @param dir    the directory for the spill file, or null for the
+     *               system's temporary directory
+     */
+    public ReadStore(long budget, File dir){
+	this.budget = budget;
+	this.dir = dir;
+    }
+
+    /**
+     * Adds a read to the end of the store.
+     *
+     * @param read the read's bases
+     * @return     the read's number
+     * @throws IOException if the read has to spill and the spill file cannot be grown
+     */
+    public int add(CharSequence read) throws IOException{
+	if(size+2 > starts.length)
+	    starts = Arrays.copyOf(starts,starts.length*2);
+	long base = starts[size];
+	for(int i = 0; i < read.length(); i++, base++){
+	    int code = Bases.code(read.charAt(i));
+	    if(code < 0){
+		ambiguous.set(size);
+		code = 0;
+	    }
+	    int page = (int)(base >>> (PAGE_SHIFT+5));
+	    if(page == pageCount)
+		addPage();
+	    int word = (int)(base >>> 5) & (PAGE_WORDS-1);
+	    pages[page].put(word,pages[page].get(word) | (long)code << (62 - ((base & 31) << 1)));
+	}
+	if(ambiguous.get(size))
+	    unpacked.put(size,read.toString());
+	starts[size+1] = base;
+	return size++;
+    }
+
+    /**
+     * @return the number of reads added
+     */
+    public int size(){
+	return size;
+    }
+
+    /**
+     * @return the number of pages mapped from disk
+     */
+    public int spilled(){
+	return spilled;
+    }
+
+    public int length(int read){
+	return (int)(starts[read+1]-starts[read]);
+    }
+
+    /**
+     * @param read a read's number
+     * @param pos  a position in the read
+     * @return     the base there, upper case unless the read holds a
+     *             character other than ACGT
+     * @throws StringIndexOutOfBoundsException if pos is not in the read
+     */
+    public char charAt(int read, int pos){
+	checkIndex(read,pos);
+	if(ambiguous.get(read))
+	    return unpacked.get(read).charAt(pos);
+	long base = starts[read]+pos;
+	long word = pages[(int)(base >>> (PAGE_SHIFT+5))].get((int)(base >>> 5) & (PAGE_WORDS-1));
+	return Bases.base((int)(word >>> (62 - ((base & 31) << 1))) & 3);
+    }
+
+    /**
+     * Replaces a base of a read. Reads share words of the store, so bases
+     * must be set from one thread at a time, with no thread reading.
+     *
+     * @param read a read's number
+     * @param pos  a position in the read
+     * @param base the new base, one of ACGT
+     * @throws StringIndexOutOfBoundsException if pos is not in the read
+     */
+    public void set(int read, int pos, char base){
+	checkIndex(read,pos);
+	if(ambiguous.get(read)){
+	    StringBuilder sb = new StringBuilder(unpacked.get(read));
+	    sb.setCharAt(pos,base);
+	    unpacked.put(read,sb.toString());
+	    return;
+	}
+	long at = starts[read]+pos;
+	LongBuffer page = pages[(int)(at >>> (PAGE_SHIFT+5))];
+	int word = (int)(at >>> 5) & (PAGE_WORDS-1);
+	int shift = 62 - (int)((at & 31) << 1);
+	page.put(word,page.get(word) & ~(3L << shift) | (long)Bases.code(base) << shift);
+    }
+
+    /**
+     * @return true if a read holds exactly the bases of seq
+     */
+    public boolean contentEquals(int read, CharSequence seq){
+	if(length(read) != seq.length())
+	    return false;
+	for(int i = 0; i < seq.length(); i++)
+	    if(charAt(read,i) != seq.charAt(i))
+		return false;
+	return true;
+    }
+
+    /**
+     * @return true if len bases of one read, from offset, match len bases
+     *         of another read from otherOffset
+     */
+    public boolean regionMatches(int read, int offset, int other, int otherOffset, int len){
+	for(int i = 0; i < len; i++)
+	    if(charAt(read,offset+i) != charAt(other,otherOffset+i))
+		return false;
+	return true;
+    }
+
+    /**
+     * Unpacks part of a read as a String.
+     */
+    public String substring(int read, int from, int to){
+	StringBuilder sb = new StringBuilder(to-from);
+	for(int i = from; i < to; i++)
+	    sb.append(charAt(read,i));
+	return sb.toString();
+    }
+
+    public String toString(int read){
+	return substring(read,0,length(read));
+    }
+
+    /**
+     * Drops the spilled pages and deletes the spill file.
+     */
+    public void close() throws IOException{
+	if(spill == null)
+	    return;
+	Arrays.fill(pages,null);
+	spill.close();
+	spillFile.delete();
+	spill = null;
+    }
+
+    //Reads are laid end to end, so a position past one read's end would
+    //silently read the next one's bases
+    private void checkIndex(int read, int pos){
+	if(pos < 0 || pos >= length(read))
+	    throw new StringIndexOutOfBoundsException("Position " + pos + " of read " + read +
+						      " of length " + length(read));
+    }
+
+    //Adds an empty page, on the heap while the budget allows, else
+    //mapped from the end of the spill file
+    private void addPage() throws IOException{
+	if(pageCount == pages.length)
+	    pages = Arrays.copyOf(pages,pageCount*2);
+	if((pageCount+1)*PAGE_BYTES <= budget){
+	    pages[pageCount++] = LongBuffer.wrap(new long[PAGE_WORDS]);
+	    return;
+	}
+	if(spill == null){
+	    spillFile = File.createTempFile("reads",".spill",dir);
+	    spillFile.deleteOnExit();
+	    spill = FileChannel.open(spillFile.toPath(),StandardOpenOption.READ,StandardOpenOption.WRITE);
+	}
+	pages[pageCount++] = spill.map(FileChannel.MapMode.READ_WRITE,spilled*PAGE_BYTES,PAGE_BYTES).asLongBuffer();
+	spilled++;
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * The packed reference genome together with the two k-mer indexes
+ * Alignment maps reads against, and the on-disk form of all three.
+ * <p>
+ * A dense index holds every read-length window and every seed k-mer of
+ * the reference, two entries per base. A sparse index (window above 0)
+ * holds only the seed k-mers that are (window,merlen)-minimizers and no
+ * read-length windows, which makes it several times smaller; reads are
+ * then seeded from their own minimizers.
+ * <p>
+ * Building the index from a FASTA file is the largest fixed cost of an
+ * alignment run, and the result only depends on the reference. An index
+ * file stores the built tables so later runs against the same reference
+ * can map them back in at disk speed. The file layout is:
+ * <ul>
+ * <li>a header: magic number, format VERSION, K, MERLEN and the minimizer window</li>
+ * <li>the size, modification time and CRC32C checksum of the source FASTA</li>
+ * <li>the CRC32C checksum of the rest of the file</li>
+ * <li>the packed genome, then the ref table, then the seed index</li>
+ * </ul>
+ * A file whose version, k-mer lengths, window or checksum do not match is stale,
+ * and open rebuilds it, as it does a file that cannot be read back whole
+ * or whose tables do not match their own checksum.
+ * The file is written under a temporary name and moved into place, so a
+ * write that is cut off never leaves a partial index behind.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+final class ReferenceIndex{
+    public static final int VERSION = 6;
+    private static final long MAGIC = 0x5844494e47494c41L; //"ALIGNIDX"
+    //Where the checksum of the tables is kept, and where they start
+    private static final long BODY_CHECKSUM = 48;
+    private static final long HEADER = 56;
+
+    public final int k;
+    public final int merlen;
+    public final int window;
+    public final PackedSequence genome;
+    public final LongIntMap ref;
+    public final SeedIndex seeds;
+
+    private ReferenceIndex(int k, int merlen, int window, PackedSequence genome, LongIntMap ref, SeedIndex seeds){
+	this.k = k;
+	this.merlen = merlen;
+	this.window = window;
+	this.genome = genome;
+	this.ref = ref;
+	this.seeds = seeds;
+    }
+
+    /**
+     * Loads a reference genome and indexes every k-length window (by rolling
+     * hash) at its first position, and every merlen-length k-mer (by code)
+     * at all of its positions. Windows containing an N are skipped.
+     * <p>
+     * A sparse index keeps only the minimizer k-mers, and no windows.
+     *
+     * @param fasta  the FASTA file containing the reference genome
+     * @param k      the read length
+     * @param merlen the seed k-mer length, at most Bases.MAX_K
+     * @param window the minimizer window, or 0 for a dense index
+     * @return       the built index
+     * @throws IOException if the file cannot be read
+     * @see          SeedIndex
+     */
+    public static ReferenceIndex build(File fasta, int k, int merlen, int window) throws IOException{
+	PackedSequence genome = new PackedSequence(0);
+	FastaLoader.load(fasta,genome);
+	SeedIndex seeds = SeedIndex.build(genome,merlen,window);
+	if(window > 0)
+	    return new ReferenceIndex(k,merlen,window,genome,new LongIntMap(0),seeds);
+	LongIntMap ref = new LongIntMap(genome.length());
+	KmerRoller roller = new KmerRoller(k);
+	for(int i = 0; i < genome.length(); i++)
+	    if(roller.add(genome.charAt(i)))
+		ref.putIfAbsent(roller.hash(),i+1-k);
+	return new ReferenceIndex(k,merlen,0,genome,ref,seeds);
+    }
+
+    /**
+     * Reads the index for a reference from an index file, first building
+     * and writing the file if it is missing, stale or cannot be read.
+     *
+     * @param indexFile the index file to read or (re)write
+     * @param fasta     the FASTA file containing the reference genome
+     * @param k         the read length
+     * @param merlen    the seed k-mer length
+     * @param window    the minimizer window, or 0 for a dense index
+     * @return          the index
+     * @throws IOException if the reference cannot be read, or the index cannot be written
+     */
+    public static ReferenceIndex open(File indexFile, File fasta, int k, int merlen, int window) throws IOException{
+	ReferenceIndex index;
+	try{
+	    index = read(indexFile,fasta,k,merlen,window);
+	}
+	catch(IOException e){
+	    //A truncated or damaged file is as good as none
+	    index = null;
+	}
+	if(index == null){
+	    index = build(fasta,k,merlen,window);
+	    index.write(indexFile,fasta);
+	}
+	return index;
+    }
+
+    /**
+     * Reads an index file, checking it against the reference it was built from.
+     *
+     * @return the index, or null if the file is missing or stale
+     * @throws IOException if a file exists but cannot be read, or the index is cut short or damaged
+     */
+    public static ReferenceIndex read(File indexFile, File fasta, int k, int merlen, int window) throws IOException{
+	if(!indexFile.isFile())
+	    return null;
+	try(MappedFile in = MappedFile.openRead(indexFile)){
+	    if(in.remaining() < HEADER || in.getLong() != MAGIC || in.getInt() != VERSION
+	       || in.getInt() != k || in.getInt() != merlen || in.getInt() != window)
+		return null;
+	    long size = in.getLong();
+	    in.getLong(); //The modification time, only kept as a record
+	    long checksum = in.getLong();
+	    //A changed size means a changed file, and a file can change
+	    //without its timestamp, so the checksum is always compared
+	    if(size != fasta.length() || checksum != checksum(fasta,0))
+		return null;
+	    //A flipped bit in the tables could send a lookup astray instead
+	    //of failing, so they are checked whole before any is trusted
+	    if(in.getLong() != checksum(indexFile,HEADER))
+		throw new IOException("Damaged index " + indexFile);
+	    PackedSequence genome = PackedSequence.read(in);
+	    LongIntMap ref = LongIntMap.read(in);
+	    SeedIndex seeds = SeedIndex.read(in);
+	    return new ReferenceIndex(k,merlen,window,genome,ref,seeds);
+	}
+	catch(RuntimeException e){
+	    //Garbage lengths in a damaged file show up as bad array sizes
+	    throw new IOException("Damaged index " + indexFile,e);
+	}
+    }
+
+    /**
+     * Writes the index to a file, stamped with the reference it was built
+     * from. The index is written to a temporary file beside it, which then
+     * replaces it in one step. The tables' checksum is filled in last,
+     * once they are on disk.
+     *
+     * @param indexFile the file to write
+     * @param fasta     the FASTA file the index was built from
+     * @throws IOException if either file cannot be accessed
+     */
+    public void write(File indexFile, File fasta) throws IOException{
+	File temp = File.createTempFile(indexFile.getName(),".tmp",indexFile.getAbsoluteFile().getParentFile());
+	try{
+	    writeTo(temp,fasta);
+	    try(FileChannel channel = FileChannel.open(temp.toPath(),StandardOpenOption.WRITE)){
+		ByteBuffer body = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		body.putLong(0,checksum(temp,HEADER));
+		channel.write(body,BODY_CHECKSUM);
+		channel.force(true);
+	    }
+	    Files.move(temp.toPath(),indexFile.toPath(),StandardCopyOption.ATOMIC_MOVE,
+		       StandardCopyOption.REPLACE_EXISTING);
+	}
+	finally{
+	    temp.delete();
+	}
+    }
+
+    private void writeTo(File indexFile, File fasta) throws IOException{
+	try(MappedFile out = MappedFile.openWrite(indexFile)){
+	    out.putLong(MAGIC);
+	    out.putInt(VERSION);
+	    out.putInt(k);
+	    out.putInt(merlen);
+	    out.putInt(window);
+	    out.putLong(fasta.length());
+	    out.putLong(fasta.lastModified());
+	    out.putLong(checksum(fasta,0));
+	    out.putLong(0); //The tables' checksum, filled in by write
+	    genome.write(out);
+	    ref.write(out);
+	    seeds.write(out);
+	}
+    }
+
+    /**
+     * @return the CRC32C checksum of a file's contents, from an offset on
+     */
+    private static long checksum(File file, long from) throws IOException{
+	CRC32C crc = new CRC32C();
+	try(FileChannel channel = FileChannel.open(file.toPath(),StandardOpenOption.READ)){
+	    long size = channel.size();
+	    for(long offset = from; offset < size; offset += 1 << 30){
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,offset,
+						      Math.min(1 << 30,size-offset));
+		crc.update(buffer);
+	    }
+	}
+	return crc.getValue();
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Places a read on the reference by voting over the diagonals of its
+ * seed hits.
+ * <p>
+ * Each k-mer of the read that is found in the SeedIndex gives a hit at
+ * every position it occurs, and a hit at position p for read offset o
+ * votes for the read starting at diagonal p-o. A k-mer the reference
+ * holds as its reverse complement is a hit for the read's reverse
+ * complement instead, at that read's own offset. Hits are sorted by
+ * strand and diagonal and chained while neighbouring diagonals differ
+ * by at most the gap allowed, so the hits either side of an indel land in one
+ * chain. The chain with the most hits wins, the forward strand and then
+ * the lowest diagonal on a tie.
+ * <p>
+ * K-mers with more than MAX_OCCURRENCES positions are skipped: they are
+ * repeats that say little about where a read belongs, and would swamp
+ * the vote. A SeedChainer keeps its buffers between reads and is not
+ * thread-safe.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ * @see    SeedIndex
+ */
+
+import java.util.Arrays;
+
+final class SeedChainer{
+    public static final int MAX_OCCURRENCES = 32;
+
+    private final SeedIndex seeds;
+    private final int merlen;
+    //Hits as diagonal << 32 | read offset, so they sort by diagonal,
+    //with the sign bit set on reverse complement hits
+    private long[] hits = new long[256];
+    private int size;
+    private int length;
+
+    private int chainHits;
+    private int diagonal;
+    private int anchor;
+    private boolean gapped;
+    private boolean reverse;
+
+    /**
+     * @param seeds  the index to look k-mers up in
+     * @param merlen the length of its k-mers
+     */
+    public SeedChainer(SeedIndex seeds, int merlen){
+	this.seeds = seeds;
+	this.merlen = merlen;
+    }
+
+    /**
+     * Starts a new read.
+     *
+     * @param length the read's length
+     */
+    public void reset(int length){
+	size = 0;
+	this.length = length;
+    }
+
+    /**
+     * Adds the hits of one of the read's k-mers.
+     *
+     * @param kmer    the k-mer's canonical code, or Bases.INVALID to skip it
+     * @param forward true if the read holds the canonical k-mer, false if
+     *                it holds its reverse complement
+     * @param offset  the k-mer's offset in the read
+     */
+    public void add(long kmer, boolean forward, int offset){
+	if(kmer == Bases.INVALID)
+	    return;
+	int ordinal = seeds.find(kmer);
+	if(ordinal == LongIntMap.MISSING)
+	    return;
+	int start = seeds.start(ordinal);
+	int end = seeds.end(ordinal);
+	if(end-start > MAX_OCCURRENCES)
+	    return;
+	if(size+end-start > hits.length)
+	    hits = Arrays.copyOf(hits,Math.max(hits.length*2,size+end-start));
+	for(int i = start; i < end; i++){
+	    boolean same = forward != seeds.reverse(i);
+	    int at = same ? offset : length-offset-merlen;
+	    int diagonal = seeds.position(i)-at;
+	    if(diagonal >= 0)
+		hits[size++] = (long)diagonal << 32 | at | (same ? 0 : Long.MIN_VALUE);
+	}
+    }
+
+    /**
+     * Chains the hits added since reset and picks the best chain.
+     *
+     * @param maxGap the most two neighbouring diagonals of a chain may differ by
+     * @return       the number of hits in the best chain, 0 if there were none
+     */
+    public int chain(int maxGap){
+	Arrays.sort(hits,0,size);
+	//Reverse complement hits sort first, but forward chains win ties
+	int split = 0;
+	while(split < size && hits[split] < 0)
+	    split++;
+	chainHits = 0;
+	chain(split,size,maxGap);
+	chain(0,split,maxGap);
+	return chainHits;
+    }
+
+    //Chains the hits in [from, to), which are all on one strand
+    private void chain(int from, int to, int maxGap){
+	int first = from;
+	for(int i = from+1; i <= to; i++){
+	    if(i < to && diagonal(i)-diagonal(i-1) <= maxGap)
+		continue;
+	    if(i-first > chainHits)
+		pick(first,i);
+	    first = i;
+	}
+    }
+
+    /**
+     * @return the diagonal of the best chain with the most hits, where the
+     *         read starts if it has no indel
+     */
+    public int diagonal(){
+	return diagonal;
+    }
+
+    /**
+     * @return the diagonal of the best chain's leftmost hit in the read,
+     *         where the read starts if it has an indel further along
+     */
+    public int anchor(){
+	return anchor;
+    }
+
+    /**
+     * @return true if the best chain places the read's reverse complement,
+     *         which diagonal() and anchor() are then for
+     */
+    public boolean reverse(){
+	return reverse;
+    }
+
+    /**
+     * @return true if the best chain spans more than one diagonal
+     */
+    public boolean gapped(){
+	return gapped;
+    }
+
+    private int diagonal(int i){
+	return (int)(hits[i] >>> 32) & Integer.MAX_VALUE;
+    }
+
+    //Makes hits[from, to) the best chain
+    private void pick(int from, int to){
+	chainHits = to-from;
+	reverse = hits[from] < 0;
+	gapped = diagonal(from) != diagonal(to-1);
+	diagonal = diagonal(from);
+	anchor = diagonal(from);
+	int votes = 0;
+	int leftmost = Integer.MAX_VALUE;
+	for(int i = from, run = 0; i < to; i++){
+	    run = i > from && diagonal(i) == diagonal(i-1) ? run+1 : 1;
+	    if(run > votes){
+		votes = run;
+		diagonal = diagonal(i);
+	    }
+	    if((int)hits[i] < leftmost){
+		leftmost = (int)hits[i];
+		anchor = diagonal(i);
+	    }
+	}
+    }
+}
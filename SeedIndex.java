@@ -0,0 +1,171 @@
+/**
+ * Every position of every seed k-mer of the reference, in compressed
+ * sparse row (CSR) form.
+ * <p>
+ * A LongIntMap gives each distinct k-mer an ordinal, and the positions
+ * of k-mer o are positions[offsets[o]] to positions[offsets[o+1]-1], in
+ * increasing order. Besides the map that is one int per indexed
+ * position and one per distinct k-mer, with no per-entry objects, so
+ * repeated k-mers keep all of their positions rather than only the
+ * first.
+ * <p>
+ * K-mers are indexed by their canonical code, so a k-mer and its
+ * reverse complement share one entry, and each position records which
+ * of the two the reference holds there, stored as ~position for the
+ * reverse complement. A read from either strand then finds its seeds in
+ * one lookup.
+ * <p>
+ * A dense index holds every k-mer of the reference, a sparse one only
+ * its (window,merlen)-minimizers.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ * @see    Minimizers
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+
+final class SeedIndex{
+    private LongIntMap ordinals;
+    private int[] offsets;
+    private int[] positions;
+
+    private SeedIndex(LongIntMap ordinals, int[] offsets, int[] positions){
+	this.ordinals = ordinals;
+	this.offsets = offsets;
+	this.positions = positions;
+    }
+
+    /**
+     * Indexes the k-mers of a genome. K-mers containing an N are skipped.
+     *
+     * @param genome the reference genome
+     * @param merlen the k-mer length, at most Bases.MAX_K
+     * @param window the minimizer window, or 0 to index every k-mer
+     * @return       the index
+     */
+    public static SeedIndex build(PackedSequence genome, int merlen, int window){
+	int expected = window > 0 ? (int)(2L*genome.length()/(window+1)) : genome.length();
+	LongIntMap ordinals = new LongIntMap(expected);
+	int[] counts = new int[1024];
+	int distinct = 0;
+
+	//First count each k-mer, numbering them as they are first seen
+	Minimizers minimizers = window > 0 ? new Minimizers(window) : null;
+	KmerRoller roller = new KmerRoller(merlen);
+	for(int i = 0; i < genome.length(); i++){
+	    long kmer = seed(genome,roller,minimizers,i);
+	    if(kmer == Bases.INVALID)
+		continue;
+	    int ordinal = ordinals.putIfAbsent(kmer,distinct);
+	    if(ordinal == LongIntMap.MISSING){
+		ordinal = distinct++;
+		if(ordinal == counts.length)
+		    counts = Arrays.copyOf(counts,ordinal*2);
+	    }
+	    counts[ordinal]++;
+	}
+
+	//Then lay the positions out by ordinal
+	int[] offsets = new int[distinct+1];
+	for(int o = 0; o < distinct; o++)
+	    offsets[o+1] = offsets[o]+counts[o];
+	int[] positions = new int[offsets[distinct]];
+	System.arraycopy(offsets,0,counts,0,distinct);
+	if(minimizers != null)
+	    minimizers.reset();
+	roller.reset();
+	for(int i = 0; i < genome.length(); i++){
+	    long kmer = seed(genome,roller,minimizers,i);
+	    if(kmer == Bases.INVALID)
+		continue;
+	    int pos = minimizers != null ? minimizers.position() : i+1-merlen;
+	    boolean forward = minimizers != null ? genome.kmer(pos,merlen) == kmer : roller.forward();
+	    positions[counts[ordinals.get(kmer)]++] = forward ? pos : ~pos;
+	}
+	return new SeedIndex(ordinals,offsets,positions);
+    }
+
+    //Rolls base i into the window and gives the canonical k-mer to index
+    //for the window ending there, or INVALID if there is none
+    private static long seed(PackedSequence genome, KmerRoller roller, Minimizers minimizers, int i){
+	boolean full = roller.add(genome.charAt(i));
+	if(minimizers == null)
+	    return full ? roller.canonical() : Bases.INVALID;
+	int start = i+1-roller.k();
+	if(start < 0)
+	    return Bases.INVALID;
+	return minimizers.add(full ? roller.canonical() : Bases.INVALID,start) ? minimizers.kmer() : Bases.INVALID;
+    }
+
+    /**
+     * @param kmer a k-mer's canonical code
+     * @return     its ordinal, or LongIntMap.MISSING if it is not indexed
+     */
+    public int find(long kmer){
+	return ordinals.get(kmer);
+    }
+
+    /**
+     * @return the index in position() of the first position of a k-mer
+     */
+    public int start(int ordinal){
+	return offsets[ordinal];
+    }
+
+    /**
+     * @return the index in position() just past the last position of a k-mer
+     */
+    public int end(int ordinal){
+	return offsets[ordinal+1];
+    }
+
+    public int position(int i){
+	return positions[i] >= 0 ? positions[i] : ~positions[i];
+    }
+
+    /**
+     * @return true if the reference holds the reverse complement of the
+     *         canonical k-mer at position(i)
+     */
+    public boolean reverse(int i){
+	return positions[i] < 0;
+    }
+
+    /**
+     * @return the number of positions indexed
+     */
+    public int size(){
+	return positions.length;
+    }
+
+    public void clear(){
+	ordinals.clear();
+	offsets = new int[1];
+	positions = new int[0];
+    }
+
+    /**
+     * Writes the index in the layout read back by read.
+     */
+    public void write(MappedFile out) throws IOException{
+	ordinals.write(out);
+	out.putInt(offsets.length);
+	out.putInts(offsets);
+	out.putInt(positions.length);
+	out.putInts(positions);
+    }
+
+    /**
+     * Reads an index saved by write.
+     */
+    public static SeedIndex read(MappedFile in) throws IOException{
+	LongIntMap ordinals = LongIntMap.read(in);
+	int[] offsets = new int[in.getInt()];
+	in.getInts(offsets);
+	int[] positions = new int[in.getInt()];
+	in.getInts(positions);
+	return new SeedIndex(ordinals,offsets,positions);
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Encodes a candidate variant (type, position and allele) as one long,
+ * so variants can be counted in a LongIntMap rather than as Strings
+ * like "A,G,1234".
+ * <p>
+ * The bits of a key, from least significant, are:
+ * <ul>
+ * <li>31 bits: the position in the reference genome</li>
+ * <li>4 bits:  the number of allele bases</li>
+ * <li>24 bits: up to MAX_ALLELE allele bases, 3 bits each (ACGT, or N for anything else)</li>
+ * <li>2 bits:  the type, SNP, INS or DEL</li>
+ * </ul>
+ * The top bits stay clear, so keys are always non-negative. A SNP's
+ * allele is its reference base followed by the read's base; an INS
+ * allele holds the inserted bases and a DEL allele the deleted ones.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ */
+
+final class VariantKey{
+    public static final int SNP = 0;
+    public static final int INS = 1;
+    public static final int DEL = 2;
+
+    /** The longest allele a key can hold. */
+    public static final int MAX_ALLELE = 8;
+
+    private static final int LENGTH_SHIFT = 31;
+    private static final int ALLELE_SHIFT = 35;
+    private static final int TYPE_SHIFT = 59;
+    private static final char[] BASES = {'A','C','G','T','N'};
+
+    private VariantKey(){}
+
+    /**
+     * @param type SNP, INS or DEL
+     * @param pos  the position of the variant in the reference genome
+     * @return     a key with an empty allele
+     */
+    public static long of(int type, int pos){
+	return ((long)type << TYPE_SHIFT) | pos;
+    }
+
+    /**
+     * @param ref the reference base
+     * @param alt the base found in the read
+     * @param pos the position of the SNP in the reference genome
+     * @return    the key of the SNP
+     */
+    public static long snp(char ref, char alt, int pos){
+	return append(append(of(SNP,pos),ref),alt);
+    }
+
+    /**
+     * @param pos  the position of the insertion in the reference genome
+     * @param read the read holding the inserted bases
+     * @param from the index of the first inserted base in read
+     * @param to   the index just past the last inserted base
+     * @return     the key of the insertion
+     */
+    public static long ins(int pos, CharSequence read, int from, int to){
+	long key = of(INS,pos);
+	for(int i = from; i < to; i++)
+	    key = append(key,read.charAt(i));
+	return key;
+    }
+
+    /**
+     * @param pos    the position of the deletion in the reference genome
+     * @param genome the reference genome
+     * @param from   the first deleted position in genome
+     * @param to     the position just past the last deleted base
+     * @return       the key of the deletion
+     */
+    public static long del(int pos, PackedSequence genome, int from, int to){
+	long key = of(DEL,pos);
+	for(int i = from; i < to; i++)
+	    key = append(key,genome.charAt(i));
+	return key;
+    }
+
+    /**
+     * Adds a base to the end of a key's allele.
+     *
+     * @param key a key holding fewer than MAX_ALLELE bases
+     * @param c   the base to add
+     * @return    the extended key
+     */
+    public static long append(long key, char c){
+	int len = length(key);
+	int code = Bases.code(c);
+	if(code < 0)
+	    code = 4;
+	return (key | (long)code << (ALLELE_SHIFT+3*len)) + (1L << LENGTH_SHIFT);
+    }
+
+    public static int type(long key){
+	return (int)(key >>> TYPE_SHIFT) & 3;
+    }
+
+    public static int position(long key){
+	return (int)key & Integer.MAX_VALUE;
+    }
+
+    public static int length(long key){
+	return (int)(key >>> LENGTH_SHIFT) & 15;
+    }
+
+    /**
+     * Formats a key the way it is printed in the answer file:
+     * "REF,ALT,POS" for a SNP and "ALLELE,POS" for an insertion or deletion.
+     *
+     * @param key the key to format
+     * @return    the formatted variant
+     */
+    public static String format(long key){
+	StringBuilder sb = new StringBuilder(24);
+	for(int i = 0; i < length(key); i++){
+	    if(i > 0 && type(key) == SNP)
+		sb.append(',');
+	    sb.append(BASES[(int)(key >>> (ALLELE_SHIFT+3*i)) & 7]);
+	}
+	return sb.append(',').append(position(key)).toString();
+    }
+}
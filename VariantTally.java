@@ -0,0 +1,88 @@
+/**
+ * Counts how many reads support each candidate variant.
+ * <p>
+ * Variants are VariantKey longs counted in a LongIntMap, so memory
+ * grows with the number of distinct variants rather than with coverage.
+ * The order in which variants were first seen is kept as well, because
+ * the answer file lists them in that order.
+ *
+ * @author Karl Danielsen
+ * @version 0.1
+ * @see VariantKey
+ */
+
+import java.util.Arrays;
+
+final class VariantTally{
+    private final LongIntMap counts;
+    private long[] order;
+    private int size;
+
+    public VariantTally(){
+	this(1024);
+    }
+
+    /**
+     * @param expected the number of distinct variants expected
+     */
+    public VariantTally(int expected){
+	counts = new LongIntMap(expected);
+	order = new long[Math.max(1,expected)];
+    }
+
+    /**
+     * Counts one more read supporting a variant.
+     *
+     * @param key the variant's key
+     */
+    public void add(long key){
+	add(key,1);
+    }
+
+    /**
+     * Adds every count of another tally to this one. Variants new to this
+     * tally are ordered after its own, in the other tally's order.
+     *
+     * @param other the tally to add
+     */
+    public void addAll(VariantTally other){
+	for(int i = 0; i < other.size; i++)
+	    add(other.order[i],other.counts.get(other.order[i]));
+    }
+
+    /**
+     * @return the number of distinct variants counted
+     */
+    public int size(){
+	return size;
+    }
+
+    /**
+     * @param i an index below size()
+     * @return  the i-th distinct variant, in order of first appearance
+     */
+    public long key(int i){
+	return order[i];
+    }
+
+    /**
+     * @param key a variant's key
+     * @return    the number of reads supporting it, 0 if none
+     */
+    public int count(long key){
+	return Math.max(0,counts.get(key));
+    }
+
+    public void clear(){
+	counts.clear();
+	size = 0;
+    }
+
+    private void add(long key, int n){
+	if(counts.increment(key,n) != n)
+	    return;
+	if(size == order.length)
+	    order = Arrays.copyOf(order,size*2);
+	order[size++] = key;
+    }
+}